@@ -13,8 +13,6 @@
 package org.openhab.binding.sonoff.internal;
 
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -33,12 +31,6 @@ public class SonoffBindingConstants {
 
     public static final String BINDING_ID = "sonoff";
 
-    public static final Set<Integer> LAN_IN = Collections.unmodifiableSet(Stream
-            .of(1, 2, 3, 4, 5, 6, 7, 8, 9, 14, 15, 28, 32, 44, 77, 78, 103, 104, 126, 181).collect(Collectors.toSet()));
-
-    public static final Set<Integer> LAN_OUT = Collections.unmodifiableSet(
-            Stream.of(1, 2, 3, 4, 5, 6, 7, 8, 9, 14, 28, 32, 44, 77, 78, 126, 181).collect(Collectors.toSet()));
-
     // List of all Thing Type UIDs
     public static final ThingTypeUID THING_TYPE_ACCOUNT = new ThingTypeUID(BINDING_ID, "account");
     public static final ThingTypeUID THING_TYPE_1 = new ThingTypeUID(BINDING_ID, "1"); // S20 , S26 , BASIC , MINI, Mini
@@ -134,74 +126,4 @@ public class SonoffBindingConstants {
 
                     THING_TYPE_77, THING_TYPE_78, THING_TYPE_81, THING_TYPE_82, THING_TYPE_83, THING_TYPE_84,
                     THING_TYPE_102, THING_TYPE_104, THING_TYPE_107, THING_TYPE_126).collect(Collectors.toSet()));
-
-    public static final Map<Integer, ThingTypeUID> createMap() { // thing type denotes number of channels
-        Map<Integer, ThingTypeUID> deviceTypes = new HashMap<>();
-        deviceTypes.put(1, THING_TYPE_1);
-        deviceTypes.put(2, THING_TYPE_2);
-        deviceTypes.put(3, THING_TYPE_3);
-        deviceTypes.put(4, THING_TYPE_4);
-        deviceTypes.put(5, THING_TYPE_5);
-        deviceTypes.put(6, THING_TYPE_6);
-        deviceTypes.put(7, THING_TYPE_7);
-        deviceTypes.put(8, THING_TYPE_8);
-        deviceTypes.put(9, THING_TYPE_9);
-        deviceTypes.put(14, THING_TYPE_14);
-        deviceTypes.put(15, THING_TYPE_15);
-        deviceTypes.put(181, THING_TYPE_181);
-
-        deviceTypes.put(24, THING_TYPE_24);
-        deviceTypes.put(27, THING_TYPE_27);
-        deviceTypes.put(28, THING_TYPE_28);
-        deviceTypes.put(29, THING_TYPE_29);
-        deviceTypes.put(30, THING_TYPE_30);
-        deviceTypes.put(31, THING_TYPE_31);
-
-        deviceTypes.put(32, THING_TYPE_32);
-        deviceTypes.put(190, THING_TYPE_190);
-        deviceTypes.put(59, THING_TYPE_59);
-
-        deviceTypes.put(66, THING_TYPE_66);
-        deviceTypes.put(77, THING_TYPE_77);
-        deviceTypes.put(77, THING_TYPE_77);
-        deviceTypes.put(78, THING_TYPE_78);
-        deviceTypes.put(81, THING_TYPE_81);
-        deviceTypes.put(82, THING_TYPE_82);
-        deviceTypes.put(83, THING_TYPE_83);
-        deviceTypes.put(84, THING_TYPE_84);
-
-        deviceTypes.put(102, THING_TYPE_102);
-        deviceTypes.put(104, THING_TYPE_104);
-        deviceTypes.put(107, THING_TYPE_107);
-        deviceTypes.put(126, THING_TYPE_126);
-
-        return Collections.unmodifiableMap(deviceTypes);
-    }
-
-    public static final Map<Integer, ThingTypeUID> createSensorMap() { // thing type denotes number of channels
-        Map<Integer, ThingTypeUID> sensorTypes = new HashMap<>();
-        sensorTypes.put(4, THING_TYPE_RF1);
-        sensorTypes.put(4, THING_TYPE_RF2);
-        sensorTypes.put(4, THING_TYPE_RF3);
-        sensorTypes.put(4, THING_TYPE_RF4);
-        sensorTypes.put(6, THING_TYPE_RF6);
-
-        return Collections.unmodifiableMap(sensorTypes);
-    }
-
-    public static final Map<Integer, ThingTypeUID> createZigbeeMap() { // thing type denotes number of channels
-        Map<Integer, ThingTypeUID> zigbeeTypes = new HashMap<>();
-        zigbeeTypes.put(1000, THING_TYPE_ZSWITCH1);
-        zigbeeTypes.put(1009, THING_TYPE_ZSWITCH1);
-        zigbeeTypes.put(1256, THING_TYPE_ZSWITCH1);
-        zigbeeTypes.put(1257, THING_TYPE_ZLIGHT);
-        zigbeeTypes.put(1770, THING_TYPE_1770);
-        zigbeeTypes.put(2026, THING_TYPE_2026);
-        zigbeeTypes.put(3026, THING_TYPE_ZCONTACT);
-        zigbeeTypes.put(4026, THING_TYPE_ZWATER);
-        zigbeeTypes.put(2256, THING_TYPE_ZSWITCH2);
-        zigbeeTypes.put(3256, THING_TYPE_ZSWITCH3);
-        zigbeeTypes.put(4256, THING_TYPE_ZSWITCH4);
-        return Collections.unmodifiableMap(zigbeeTypes);
-    }
 }
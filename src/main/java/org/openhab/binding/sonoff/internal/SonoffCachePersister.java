@@ -0,0 +1,237 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.sonoff.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * The {@link SonoffCachePersister} sits in front of the {@link SonoffDeviceCache} and holds changed devices in memory
+ * until {@link #flush()} writes them out together. Full device payloads replace the cached device, partial updates
+ * are merged into its params, so after a restart a device starts from its last known state rather than from the one
+ * seen at discovery. Devices whose json has not changed since it was last written are skipped.
+ *
+ * @author David Murton - Initial contribution
+ */
+@NonNullByDefault
+public class SonoffCachePersister {
+
+    private final Logger logger = LoggerFactory.getLogger(SonoffCachePersister.class);
+    private final Gson gson = new Gson();
+    private final SonoffDeviceCache cache;
+    // Devices changed since the last flush
+    private final Map<String, JsonObject> dirty = new LinkedHashMap<>();
+    // Fingerprint of the json last written or read for each device, the json itself is not kept
+    private final Map<String, Fingerprint> written = new HashMap<>();
+    // The fields of each device that discovery cares about, as last seen in the device list
+    private final Map<String, String> listed = new HashMap<>();
+
+    // Length and SHA-256 of a device's json, a change that keeps both the same is not a practical concern
+    private static final class Fingerprint {
+        private final int length;
+        private final byte[] digest;
+
+        private Fingerprint(int length, byte[] digest) {
+            this.length = length;
+            this.digest = digest;
+        }
+
+        private static Fingerprint of(String json) {
+            byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+            try {
+                return new Fingerprint(bytes.length, MessageDigest.getInstance("SHA-256").digest(bytes));
+            } catch (NoSuchAlgorithmException e) {
+                // Every Java platform has SHA-256
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public boolean equals(@Nullable Object other) {
+            return other instanceof Fingerprint && ((Fingerprint) other).length == length
+                    && Arrays.equals(((Fingerprint) other).digest, digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(digest);
+        }
+    }
+
+    public SonoffCachePersister(SonoffDeviceCache cache) {
+        this.cache = cache;
+    }
+
+    public synchronized boolean contains(String deviceid) {
+        return dirty.containsKey(deviceid) || cache.contains(deviceid);
+    }
+
+    public synchronized Set<String> getDeviceids() {
+        Set<String> deviceids = cache.getDeviceids();
+        deviceids.addAll(dirty.keySet());
+        return deviceids;
+    }
+
+    /**
+     * @return a copy of the latest json of the device or null if it is not cached
+     */
+    public synchronized @Nullable JsonObject get(String deviceid) {
+        JsonObject device = dirty.get(deviceid);
+        return device != null ? device.deepCopy() : read(deviceid);
+    }
+
+    /**
+     * Replaces the cached device
+     */
+    public synchronized void put(String deviceid, String json) {
+        try {
+            JsonObject device = gson.fromJson(json, JsonObject.class);
+            if (device != null) {
+                dirty.put(deviceid, device);
+            }
+        } catch (JsonSyntaxException e) {
+            logger.debug("Device {} could not be cached: {}", deviceid, e.getMessage());
+        }
+    }
+
+    /**
+     * Compares a device from the account's device list with the cached one and replaces the cached one if it is new or
+     * its name, keys, type or firmware have changed. Devices seen unchanged in an earlier list are not read again.
+     *
+     * @return true if the device was added or changed
+     */
+    public synchronized boolean refresh(String deviceid, JsonObject device) {
+        String identity = identity(device);
+        if (identity.equals(listed.get(deviceid))) {
+            return false;
+        }
+        JsonObject cached = dirty.get(deviceid);
+        if (cached == null) {
+            cached = read(deviceid);
+        }
+        listed.put(deviceid, identity);
+        if (cached != null && identity.equals(identity(cached))) {
+            return false;
+        }
+        dirty.put(deviceid, device.deepCopy());
+        return true;
+    }
+
+    /**
+     * Records a state update, a full device (one with a devicekey) replaces the cached one, anything else only has its
+     * params merged into it. Devices that are not cached are ignored.
+     */
+    public synchronized void update(JsonObject device) {
+        JsonElement id = device.get("deviceid");
+        if (id == null) {
+            return;
+        }
+        String deviceid = id.getAsString();
+        if (device.has("devicekey")) {
+            dirty.put(deviceid, device.deepCopy());
+            listed.remove(deviceid);
+            return;
+        }
+        JsonObject params = device.getAsJsonObject("params");
+        if (params == null || params.size() == 0) {
+            return;
+        }
+        JsonObject cached = dirty.get(deviceid);
+        if (cached == null) {
+            cached = read(deviceid);
+            if (cached == null) {
+                return;
+            }
+            dirty.put(deviceid, cached);
+        }
+        JsonObject cachedParams = cached.getAsJsonObject("params");
+        if (cachedParams == null) {
+            cachedParams = new JsonObject();
+            cached.add("params", cachedParams);
+        }
+        for (Map.Entry<String, JsonElement> param : params.entrySet()) {
+            cachedParams.add(param.getKey(), param.getValue().deepCopy());
+        }
+    }
+
+    /**
+     * Writes the devices that changed since the last flush in a single append and sync
+     */
+    public synchronized void flush() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        Map<String, String> changed = new HashMap<>();
+        for (Map.Entry<String, JsonObject> device : dirty.entrySet()) {
+            String json = gson.toJson(device.getValue());
+            Fingerprint fingerprint = Fingerprint.of(json);
+            if (!fingerprint.equals(written.put(device.getKey(), fingerprint))) {
+                changed.put(device.getKey(), json);
+            }
+        }
+        logger.debug("Flushing {} of {} changed devices to the cache", changed.size(), dirty.size());
+        if (cache.putAll(changed)) {
+            dirty.clear();
+        } else {
+            // Try again on the next flush
+            for (String deviceid : changed.keySet()) {
+                written.remove(deviceid);
+            }
+        }
+    }
+
+    private static String identity(JsonObject device) {
+        JsonObject extra = device.getAsJsonObject("extra");
+        JsonObject params = device.getAsJsonObject("params");
+        JsonArray identity = new JsonArray();
+        identity.add(device.get("name"));
+        identity.add(device.get("devicekey"));
+        identity.add(device.get("apikey"));
+        identity.add(device.get("brandName"));
+        identity.add(device.get("productModel"));
+        identity.add(extra != null ? extra.get("uiid") : null);
+        identity.add(params != null ? params.get("fwVersion") : null);
+        return identity.toString();
+    }
+
+    private @Nullable JsonObject read(String deviceid) {
+        String json = cache.get(deviceid);
+        if (json == null) {
+            return null;
+        }
+        written.put(deviceid, Fingerprint.of(json));
+        try {
+            return gson.fromJson(json, JsonObject.class);
+        } catch (JsonSyntaxException e) {
+            logger.debug("Cached device {} could not be read: {}", deviceid, e.getMessage());
+            return null;
+        }
+    }
+}
@@ -12,19 +12,17 @@
  */
 package org.openhab.binding.sonoff.internal;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
@@ -33,128 +31,114 @@ import org.openhab.core.OpenHAB;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 
 /**
- * The {@link SonoffCacheProvider} provides file operations for the device cache
+ * The {@link SonoffCacheProvider} provides file operations for the device cache. All devices are kept in a single
+ * {@link SonoffDeviceCache} file shared by every provider. Device files in the one file per device format of older
+ * versions are imported into it when it is opened if the device is not cached yet or the file was changed since the
+ * cache was last written, so devices can still be added by hand. Changes go through a shared
+ * {@link SonoffCachePersister} and only reach the file when {@link #flush()} is called, as do the
+ * {@link SonoffChannelSnapshots}.
  *
  * @author David Murton - Initial contribution
  */
 @NonNullByDefault
 public class SonoffCacheProvider {
     private static final Logger logger = LoggerFactory.getLogger(SonoffCacheProvider.class);
+    private static final String CACHE_FILE = "devices.cache";
+    private static final String SNAPSHOT_FILE = "channels.snapshot";
+    private static final Map<String, SonoffCachePersister> CACHES = new ConcurrentHashMap<>();
+    private static final Map<String, SonoffChannelSnapshots> SNAPSHOTS = new ConcurrentHashMap<>();
     private final String saveFolderName;
-    private final @Nullable Gson gson;
+    private final SonoffCachePersister cache;
 
-    public SonoffCacheProvider(Gson gson) {
+    public SonoffCacheProvider() {
         this.saveFolderName = OpenHAB.getUserDataFolder() + "/" + SonoffBindingConstants.BINDING_ID;
         final File saveFolder = new File(saveFolderName);
-        this.gson = gson;
 
         // Create path for serialization.
         if (!saveFolder.exists()) {
             logger.debug("Creating directory {}", saveFolderName);
             saveFolder.mkdirs();
         }
+        this.cache = CACHES.computeIfAbsent(saveFolderName, folder -> openCache(Path.of(folder)));
     }
 
-    public SonoffCacheProvider() {
-        this.saveFolderName = OpenHAB.getUserDataFolder() + "/" + SonoffBindingConstants.BINDING_ID;
-        final File saveFolder = new File(saveFolderName);
-        this.gson = null;
-
-        // Create path for serialization.
-        if (!saveFolder.exists()) {
-            logger.debug("Creating directory {}", saveFolderName);
-            saveFolder.mkdirs();
-        }
+    /**
+     * @return the last published channel states of every thing, shared by all providers
+     */
+    public SonoffChannelSnapshots getChannelSnapshots() {
+        return SNAPSHOTS.computeIfAbsent(saveFolderName,
+                folder -> new SonoffChannelSnapshots(Path.of(folder).resolve(SNAPSHOT_FILE)));
     }
 
-    public void newFile(String deviceid, String thing) {
-        File file = new File(this.saveFolderName, deviceid + ".txt");
-        BufferedWriter writer = null;
-        logger.debug("Device {}: writing to file {}", deviceid, file.getPath());
-        try {
-            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
-            writer.write(thing);
-            writer.flush();
-        } catch (IOException e) {
-            logger.error("Device {}: Error writing to file: {}", deviceid, e.getMessage());
-        } finally {
-            if (writer != null) {
-                try {
-                    writer.close();
-                } catch (IOException e) {
+    private static SonoffCachePersister openCache(Path folder) {
+        Path cacheFile = folder.resolve(CACHE_FILE);
+        SonoffDeviceCache cache = new SonoffDeviceCache(cacheFile);
+        Map<String, String> devices = new HashMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, "*.txt")) {
+            FileTime written = Files.exists(cacheFile) ? Files.getLastModifiedTime(cacheFile) : FileTime.fromMillis(0);
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String deviceid = name.substring(0, name.length() - ".txt".length());
+                if (!cache.contains(deviceid) || Files.getLastModifiedTime(file).compareTo(written) > 0) {
+                    devices.put(deviceid, new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
                 }
             }
+        } catch (IOException e) {
+            logger.debug("Unable to read the device files: {}", e.getMessage());
         }
+        if (!devices.isEmpty()) {
+            logger.debug("Importing {} new or changed device files", devices.size());
+            cache.putAll(devices);
+        }
+        return new SonoffCachePersister(cache);
     }
 
-    public List<String> getFiles() {
-        String[] filenameList;
-        List<String> fileList = new ArrayList<String>();
-        File file = new File(this.saveFolderName);
-        FilenameFilter filter = new FilenameFilter() {
-            @Override
-            public boolean accept(@Nullable File f, @Nullable String name) {
-                return name.endsWith(".txt");
-            }
-        };
-        filenameList = file.list(filter);
-        for (int i = 0; i < filenameList.length; i++) {
-            String content = getFile(filenameList[i]);
-            if (!content.equals("")) {
-                fileList.add(content);
-            }
-        }
-        return fileList;
+    public void newFile(String deviceid, String thing) {
+        logger.debug("Device {}: adding to cache {}", deviceid, saveFolderName);
+        cache.put(deviceid, thing);
     }
 
-    public Boolean checkFile(String deviceid) {
-        File file = new File(this.saveFolderName, deviceid + ".txt");
-        if (!file.exists()) {
-            return false;
-        } else {
-            return true;
-        }
+    /**
+     * Brings a device from the account's device list into the cache
+     *
+     * @return true if the device was not cached or has changed
+     */
+    public boolean refreshDevice(String deviceid, JsonObject device) {
+        return cache.refresh(deviceid, device);
     }
 
-    public String getFile(String filename) {
-        File file = new File(this.saveFolderName, filename);
-        BufferedReader reader = null;
+    public @Nullable JsonObject getDevice(String deviceid) {
+        return cache.get(deviceid);
+    }
 
-        if (!file.exists()) {
-            logger.debug("Device {}: Error getting file content: file does not exist.", filename);
-            return "";
-        }
+    /**
+     * Records a state update of a device, it is written out on the next flush
+     */
+    public void updateDevice(JsonObject device) {
+        cache.update(device);
+    }
 
-        try {
-            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
-            String response = new String();
-            for (String line; (line = reader.readLine()) != null; response += line)
-                ;
-            return response;
-        } catch (IOException e) {
-            logger.debug("Device File {}: Error serializing from file: {}", filename, e.getMessage());
-        } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException e) {
-                }
-            }
-        }
-        return "";
+    public void flush() {
+        cache.flush();
+        getChannelSnapshots().flush();
+    }
+
+    public Boolean checkFile(String deviceid) {
+        return cache.contains(deviceid);
+    }
+
+    public Set<String> getDeviceids() {
+        return cache.getDeviceids();
     }
 
     public Map<String, SonoffDeviceState> getStates() {
         Map<String, SonoffDeviceState> deviceStates = new HashMap<String, SonoffDeviceState>();
-        List<String> deviceList = getFiles();
-        for (int i = 0; i < deviceList.size(); i++) {
-            JsonObject device = gson.fromJson(deviceList.get(i), JsonObject.class);
-            if (device != null) {
-                SonoffDeviceState state = new SonoffDeviceState(device);
+        for (String deviceid : cache.getDeviceids()) {
+            SonoffDeviceState state = getState(deviceid);
+            if (state != null) {
                 deviceStates.put(state.getDeviceid(), state);
                 logger.debug("Added new state for device {}", state.getDeviceid());
             }
@@ -163,8 +147,7 @@ public class SonoffCacheProvider {
     }
 
     public @Nullable SonoffDeviceState getState(String deviceid) {
-        String deviceJson = getFile(deviceid + ".txt");
-        JsonObject device = gson.fromJson(deviceJson, JsonObject.class);
+        JsonObject device = cache.get(deviceid);
         if (device != null) {
             return new SonoffDeviceState(device);
         } else {
@@ -0,0 +1,230 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.sonoff.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.core.library.types.DateTimeType;
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.library.types.HSBType;
+import org.openhab.core.library.types.OnOffType;
+import org.openhab.core.library.types.PercentType;
+import org.openhab.core.library.types.QuantityType;
+import org.openhab.core.library.types.StringType;
+import org.openhab.core.types.State;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link SonoffChannelSnapshots} keeps the last state published on each channel of each thing so a handler can
+ * show it as soon as it initializes, before the device has been heard from. The snapshots are held in memory and
+ * written to a small file of tagged strings by {@link #flush()} through a temp file and an atomic rename.
+ *
+ * <pre>
+ * magic(4) version(4) things(4) { thingUID channels(4) { channel type(1) value } }
+ * </pre>
+ *
+ * Each value is the full string of the state tagged with its type, it is parsed back into that type when loaded.
+ * Strings are written with {@link DataOutputStream#writeUTF(String)} which takes at most 65535 bytes, states with a
+ * longer full string are not kept.
+ *
+ * @author David Murton - Initial contribution
+ */
+@NonNullByDefault
+public class SonoffChannelSnapshots {
+
+    private static final int MAGIC = 0x534f4353;
+    private static final int VERSION = 1;
+    private static final byte ONOFF = 1;
+    private static final byte QUANTITY = 2;
+    private static final byte HSB = 3;
+    private static final byte PERCENT = 4;
+    private static final byte DECIMAL = 5;
+    private static final byte STRING = 6;
+    private static final byte DATETIME = 7;
+    // The most bytes writeUTF can take
+    private static final int MAX_UTF_BYTES = 65535;
+
+    private final Logger logger = LoggerFactory.getLogger(SonoffChannelSnapshots.class);
+    private final Path file;
+    private final Map<String, Map<String, State>> things = new HashMap<>();
+    private boolean dirty = false;
+
+    public SonoffChannelSnapshots(Path file) {
+        this.file = file;
+        load();
+    }
+
+    public synchronized void put(String thingUID, String channelID, State state) {
+        if (type(state) == 0) {
+            return;
+        }
+        if (utfLength(state.toFullString()) > MAX_UTF_BYTES) {
+            // Drop the older snapshot rather than show it once this one is gone
+            logger.debug("Not keeping a snapshot of {} {} as its state is too long", thingUID, channelID);
+            Map<String, State> channels = things.get(thingUID);
+            if (channels != null && channels.remove(channelID) != null) {
+                dirty = true;
+            }
+            return;
+        }
+        things.computeIfAbsent(thingUID, thing -> new HashMap<>()).put(channelID, state);
+        dirty = true;
+    }
+
+    /**
+     * @return the last published state of each channel of the thing
+     */
+    public synchronized Map<String, State> get(String thingUID) {
+        Map<String, State> channels = things.get(thingUID);
+        return channels != null ? new HashMap<>(channels) : Map.of();
+    }
+
+    public synchronized void remove(String thingUID) {
+        if (things.remove(thingUID) != null) {
+            dirty = true;
+        }
+    }
+
+    public synchronized void flush() {
+        if (!dirty) {
+            return;
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temp.toFile());
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(things.size());
+            for (Map.Entry<String, Map<String, State>> thing : things.entrySet()) {
+                out.writeUTF(thing.getKey());
+                out.writeInt(thing.getValue().size());
+                for (Map.Entry<String, State> channel : thing.getValue().entrySet()) {
+                    out.writeUTF(channel.getKey());
+                    out.writeByte(type(channel.getValue()));
+                    out.writeUTF(channel.getValue().toFullString());
+                }
+            }
+            out.flush();
+            stream.getFD().sync();
+        } catch (IOException e) {
+            logger.warn("Unable to write the channel snapshots {}: {}", temp, e.getMessage());
+            return;
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            logger.warn("Unable to replace the channel snapshots {}: {}", file, e.getMessage());
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                logger.debug("Ignoring channel snapshots {} as they are not version {}", file, VERSION);
+                return;
+            }
+            int thingCount = in.readInt();
+            for (int i = 0; i < thingCount; i++) {
+                String thingUID = in.readUTF();
+                int channelCount = in.readInt();
+                Map<String, State> channels = new HashMap<>();
+                for (int j = 0; j < channelCount; j++) {
+                    String channelID = in.readUTF();
+                    byte type = in.readByte();
+                    State state = state(type, in.readUTF());
+                    if (state != null) {
+                        channels.put(channelID, state);
+                    }
+                }
+                things.put(thingUID, channels);
+            }
+            logger.debug("Loaded channel snapshots for {} things", things.size());
+        } catch (IOException e) {
+            logger.debug("Unable to read the channel snapshots {}: {}", file, e.getMessage());
+            things.clear();
+        }
+    }
+
+    // Length in the modified UTF-8 used by writeUTF
+    private static int utfLength(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            length += c >= 0x0001 && c <= 0x007f ? 1 : c <= 0x07ff ? 2 : 3;
+        }
+        return length;
+    }
+
+    // Subclasses first, HSB is a percent which is a decimal
+    private static byte type(State state) {
+        if (state instanceof OnOffType) {
+            return ONOFF;
+        } else if (state instanceof QuantityType) {
+            return QUANTITY;
+        } else if (state instanceof HSBType) {
+            return HSB;
+        } else if (state instanceof PercentType) {
+            return PERCENT;
+        } else if (state instanceof DecimalType) {
+            return DECIMAL;
+        } else if (state instanceof StringType) {
+            return STRING;
+        } else if (state instanceof DateTimeType) {
+            return DATETIME;
+        }
+        return 0;
+    }
+
+    private @Nullable State state(byte type, String value) {
+        try {
+            switch (type) {
+                case ONOFF:
+                    return OnOffType.valueOf(value);
+                case QUANTITY:
+                    return new QuantityType<>(value);
+                case HSB:
+                    return new HSBType(value);
+                case PERCENT:
+                    return new PercentType(value);
+                case DECIMAL:
+                    return new DecimalType(value);
+                case STRING:
+                    return new StringType(value);
+                case DATETIME:
+                    return new DateTimeType(value);
+                default:
+                    return null;
+            }
+        } catch (IllegalArgumentException e) {
+            logger.debug("Ignoring channel snapshot value {}: {}", value, e.getMessage());
+            return null;
+        }
+    }
+}
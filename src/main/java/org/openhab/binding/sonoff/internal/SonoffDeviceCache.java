@@ -0,0 +1,380 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.sonoff.internal;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link SonoffDeviceCache} keeps the cached json of every device in a single file. Records are appended and
+ * followed by an index of where the latest record of each device is, so opening the cache only reads the index and a
+ * device is only read when it is asked for. All reads and writes are positional on one channel that stays open for
+ * the life of the cache, the file is not memory mapped. The channel is closed before the file is replaced by
+ * compaction, so that also works on platforms that refuse to replace an open file.
+ * Records that have been replaced are dropped by rewriting the file once they take up more space than the live ones.
+ *
+ * <pre>
+ * header:  magic(4) version(4)
+ * record:  'R' idLength(2) id dataLength(4) data crc32(4)
+ * index:   'I' count(4) { idLength(2) id offset(8) length(4) }
+ * trailer: indexOffset(8) magic(4)
+ * </pre>
+ *
+ * If the index is missing or damaged the records are scanned instead, the last record of a device wins. A record cut
+ * short by a crash fails its checksum and is dropped along with anything after it, so a damaged record is never
+ * returned. A batch is not atomic though, a crash part way through one can keep its first devices and lose the rest.
+ * Writes are only forced to disk once per call, callers batch them to keep the number of syncs down.
+ *
+ * @author David Murton - Initial contribution
+ */
+@NonNullByDefault
+public class SonoffDeviceCache {
+
+    private static final int MAGIC = 0x534f4e43;
+    private static final int VERSION = 2;
+    private static final int HEADER = 8;
+    private static final int TRAILER = 12;
+    private static final byte RECORD = 'R';
+    private static final byte INDEX = 'I';
+    // Don't bother compacting small files
+    private static final long COMPACT_MIN_BYTES = 64 * 1024;
+
+    private final Logger logger = LoggerFactory.getLogger(SonoffDeviceCache.class);
+    private final Path file;
+    private final Map<String, Entry> index = new HashMap<>();
+    // The file has a valid header, records can be appended to it
+    private boolean valid = false;
+    // Opened on first use and kept open, only closed when the file is replaced or on an error
+    private @Nullable FileChannel channel;
+    // Where the next record is written, the index follows the last record
+    private long end = HEADER;
+    // Bytes taken by the records the index points at
+    private long live = 0;
+
+    private static class Entry {
+        private final long offset;
+        private final int length;
+
+        private Entry(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    public SonoffDeviceCache(Path file) {
+        this.file = file;
+        open();
+    }
+
+    public synchronized boolean contains(String deviceid) {
+        return index.containsKey(deviceid);
+    }
+
+    public synchronized Set<String> getDeviceids() {
+        return new HashSet<>(index.keySet());
+    }
+
+    public synchronized boolean isEmpty() {
+        return index.isEmpty();
+    }
+
+    /**
+     * @return the cached json of the device or null if it is not cached
+     */
+    public synchronized @Nullable String get(String deviceid) {
+        Entry entry = index.get(deviceid);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            return read(channel(), entry);
+        } catch (IOException e) {
+            logger.warn("Error reading {} from the device cache {}: {}", deviceid, file, e.getMessage());
+            close();
+            return null;
+        }
+    }
+
+    public synchronized boolean put(String deviceid, String json) {
+        return putAll(Map.of(deviceid, json));
+    }
+
+    /**
+     * Appends the devices and writes a new index in one go
+     *
+     * @return false if they could not be written
+     */
+    public synchronized boolean putAll(Map<String, String> devices) {
+        if (devices.isEmpty()) {
+            return true;
+        }
+        try {
+            FileChannel channel = channel();
+            if (!valid) {
+                // New file, or one that could not be read which is started again
+                channel.truncate(0);
+                writeFully(channel, header(), 0);
+                end = HEADER;
+                valid = true;
+            }
+            long position = end;
+            for (Map.Entry<String, String> device : devices.entrySet()) {
+                byte[] id = device.getKey().getBytes(StandardCharsets.UTF_8);
+                byte[] data = device.getValue().getBytes(StandardCharsets.UTF_8);
+                CRC32 crc = new CRC32();
+                crc.update(data);
+                ByteBuffer record = ByteBuffer.allocate(1 + 2 + id.length + 4 + data.length + 4);
+                record.put(RECORD).putShort((short) id.length).put(id).putInt(data.length).put(data)
+                        .putInt((int) crc.getValue()).flip();
+                writeFully(channel, record, position);
+                Entry old = index.put(device.getKey(), new Entry(position + 1 + 2 + id.length + 4, data.length));
+                if (old != null) {
+                    live -= recordLength(device.getKey(), old);
+                }
+                live += record.capacity();
+                position += record.capacity();
+            }
+            end = position;
+            writeIndex(channel, end);
+            channel.force(false);
+        } catch (IOException e) {
+            logger.error("Error writing to the device cache {}: {}", file, e.getMessage());
+            close();
+            return false;
+        }
+        if (end - HEADER - live > Math.max(live, COMPACT_MIN_BYTES)) {
+            compact();
+        }
+        return true;
+    }
+
+    private void open() {
+        index.clear();
+        valid = false;
+        end = HEADER;
+        live = 0;
+        if (!Files.exists(file)) {
+            return;
+        }
+        try {
+            FileChannel channel = channel();
+            long size = channel.size();
+            if (size < HEADER || !header().equals(readFully(channel, 0, HEADER))) {
+                logger.warn("Ignoring device cache {} as it is not a version {} cache", file, VERSION);
+                return;
+            }
+            valid = true;
+            if (!readIndex(channel, size)) {
+                logger.warn("Device cache {} has no valid index, scanning its records", file);
+                scan(readFully(channel, 0, (int) size));
+            }
+            logger.debug("Opened device cache {} with {} devices", file, index.size());
+        } catch (IOException e) {
+            logger.error("Error opening the device cache {}: {}", file, e.getMessage());
+            close();
+        }
+    }
+
+    private boolean readIndex(FileChannel channel, long size) throws IOException {
+        if (size < HEADER + TRAILER) {
+            return false;
+        }
+        ByteBuffer trailer = readFully(channel, size - TRAILER, TRAILER);
+        if (trailer.getInt(8) != MAGIC) {
+            return false;
+        }
+        long indexOffset = trailer.getLong(0);
+        if (indexOffset < HEADER || indexOffset >= size - TRAILER) {
+            return false;
+        }
+        try {
+            ByteBuffer buffer = readFully(channel, indexOffset, (int) (size - TRAILER - indexOffset));
+            if (buffer.get() != INDEX) {
+                return false;
+            }
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                String deviceid = readId(buffer);
+                long offset = buffer.getLong();
+                int length = buffer.getInt();
+                if (offset < HEADER || length < 0 || offset + length > indexOffset) {
+                    index.clear();
+                    return false;
+                }
+                index.put(deviceid, new Entry(offset, length));
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            index.clear();
+            return false;
+        }
+        end = indexOffset;
+        for (Map.Entry<String, Entry> entry : index.entrySet()) {
+            live += recordLength(entry.getKey(), entry.getValue());
+        }
+        return true;
+    }
+
+    // Only used to recover a file without an index, so the whole file is read
+    private void scan(ByteBuffer buffer) {
+        buffer.position(HEADER);
+        try {
+            while (buffer.remaining() > 0 && buffer.get() == RECORD) {
+                String deviceid = readId(buffer);
+                int length = buffer.getInt();
+                if (length < 0 || length + 4 > buffer.remaining()) {
+                    break;
+                }
+                ByteBuffer data = buffer.slice();
+                data.limit(length);
+                CRC32 crc = new CRC32();
+                crc.update(data);
+                if (buffer.getInt(buffer.position() + length) != (int) crc.getValue()) {
+                    break;
+                }
+                Entry entry = new Entry(buffer.position(), length);
+                Entry old = index.put(deviceid, entry);
+                if (old != null) {
+                    live -= recordLength(deviceid, old);
+                }
+                live += recordLength(deviceid, entry);
+                buffer.position(buffer.position() + length + 4);
+                end = buffer.position();
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            // A record was cut short, everything before it is kept
+        }
+    }
+
+    // Rewrites the live records into a new file that replaces the current one
+    private void compact() {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Map<String, String> devices = new HashMap<>();
+        try {
+            FileChannel channel = channel();
+            for (Map.Entry<String, Entry> entry : index.entrySet()) {
+                devices.put(entry.getKey(), read(channel, entry.getValue()));
+            }
+            logger.debug("Compacting device cache {} to {} devices", file, devices.size());
+            Files.deleteIfExists(temp);
+            SonoffDeviceCache compacted = new SonoffDeviceCache(temp);
+            boolean written = compacted.putAll(devices);
+            compacted.close();
+            if (!written) {
+                return;
+            }
+            close();
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Unable to compact the device cache {}: {}", file, e.getMessage());
+        }
+        open();
+    }
+
+    /**
+     * Closes the file, it is opened again when next used
+     */
+    public synchronized void close() {
+        FileChannel channel = this.channel;
+        this.channel = null;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.debug("Error closing the device cache {}: {}", file, e.getMessage());
+            }
+        }
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel channel = this.channel;
+        if (channel == null || !channel.isOpen()) {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            this.channel = channel;
+        }
+        return channel;
+    }
+
+    private void writeIndex(FileChannel channel, long position) throws IOException {
+        int length = 1 + 4;
+        for (String deviceid : index.keySet()) {
+            length += 2 + deviceid.getBytes(StandardCharsets.UTF_8).length + 8 + 4;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length + TRAILER);
+        buffer.put(INDEX).putInt(index.size());
+        for (Map.Entry<String, Entry> entry : index.entrySet()) {
+            byte[] id = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            buffer.putShort((short) id.length).put(id).putLong(entry.getValue().offset).putInt(entry.getValue().length);
+        }
+        buffer.putLong(position).putInt(MAGIC).flip();
+        writeFully(channel, buffer, position);
+        channel.truncate(position + buffer.capacity());
+    }
+
+    private static ByteBuffer header() {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        return header;
+    }
+
+    private static String readId(ByteBuffer buffer) {
+        byte[] id = new byte[buffer.getShort() & 0xffff];
+        buffer.get(id);
+        return new String(id, StandardCharsets.UTF_8);
+    }
+
+    private static long recordLength(String deviceid, Entry entry) {
+        return 1 + 2 + deviceid.getBytes(StandardCharsets.UTF_8).length + 4 + entry.length + 4;
+    }
+
+    private static String read(FileChannel channel, Entry entry) throws IOException {
+        return StandardCharsets.UTF_8.decode(readFully(channel, entry.offset, entry.length)).toString();
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file at " + offset);
+            }
+            offset += read;
+        }
+        return buffer.flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.sonoff.internal;
+
+import static org.openhab.binding.sonoff.internal.SonoffBindingConstants.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.binding.sonoff.internal.handler.SonoffGSMSocketHandler;
+import org.openhab.binding.sonoff.internal.handler.SonoffMagneticSwitchHandler;
+import org.openhab.binding.sonoff.internal.handler.SonoffRGBCCTHandler;
+import org.openhab.binding.sonoff.internal.handler.SonoffRGBStripHandler;
+import org.openhab.binding.sonoff.internal.handler.SonoffRfBridgeHandler;
+import org.openhab.binding.sonoff.internal.handler.SonoffRfDeviceHandler;
+import org.openhab.binding.sonoff.internal.handler.SonoffSwitchMultiHandler;
+import org.openhab.binding.sonoff.internal.handler.SonoffSwitchPOWHandler;
+import org.openhab.binding.sonoff.internal.handler.SonoffSwitchPOWR2Handler;
+import org.openhab.binding.sonoff.internal.handler.SonoffSwitchPOWR3Handler;
+import org.openhab.binding.sonoff.internal.handler.SonoffSwitchSingleHandler;
+import org.openhab.binding.sonoff.internal.handler.SonoffSwitchTHHandler;
+import org.openhab.binding.sonoff.internal.handler.SonoffZigbeeBridgeHandler;
+import org.openhab.binding.sonoff.internal.handler.SonoffZigbeeDevice1770Handler;
+import org.openhab.binding.sonoff.internal.handler.SonoffZigbeeDevice2026Handler;
+import org.openhab.core.thing.Bridge;
+import org.openhab.core.thing.Thing;
+import org.openhab.core.thing.ThingTypeUID;
+import org.openhab.core.thing.binding.ThingHandler;
+
+/**
+ * The {@link SonoffDeviceTypes} registry holds what the binding knows about each uiid: the thing type it is discovered
+ * as, whether it can be reached over the LAN, whether it streams telemetry once activated and how its params are
+ * parsed. Devices and zigbee sub devices share one table indexed by uiid, rf sub devices have their own indexed by
+ * remote type. The handler of each thing type is kept alongside. Everything is built once and never changes.
+ *
+ * @author David Murton - Initial contribution
+ */
+@NonNullByDefault
+public final class SonoffDeviceTypes {
+
+    private static final int LAN_IN = 1;
+    private static final int LAN_OUT = 2;
+    private static final int LAN = LAN_IN | LAN_OUT;
+    private static final int TELEMETRY = 4;
+    private static final int ZIGBEE = 8;
+
+    /**
+     * How a device's params are read
+     */
+    public enum Profile {
+        STANDARD,
+        // Temperature and humidity in degrees and percent
+        TH,
+        // Electrical values in hundredths
+        POWR3,
+        // Sub devices in params.subDevices
+        ZIGBEE_BRIDGE,
+        // Sub devices in tags.zyx_info
+        RF_BRIDGE
+    }
+
+    public static final class DeviceType {
+        private final int uiid;
+        private final @Nullable ThingTypeUID thingTypeUID;
+        private final int flags;
+        private final Profile profile;
+
+        private DeviceType(int uiid, @Nullable ThingTypeUID thingTypeUID, int flags, Profile profile) {
+            this.uiid = uiid;
+            this.thingTypeUID = thingTypeUID;
+            this.flags = flags;
+            this.profile = profile;
+        }
+
+        public int getUiid() {
+            return uiid;
+        }
+
+        public @Nullable ThingTypeUID getThingTypeUID() {
+            return thingTypeUID;
+        }
+
+        public boolean isLanIn() {
+            return (flags & LAN_IN) != 0;
+        }
+
+        public boolean isLanOut() {
+            return (flags & LAN_OUT) != 0;
+        }
+
+        public boolean hasTelemetry() {
+            return (flags & TELEMETRY) != 0;
+        }
+
+        public boolean isZigbee() {
+            return (flags & ZIGBEE) != 0;
+        }
+
+        public Profile getProfile() {
+            return profile;
+        }
+    }
+
+    private static final @Nullable DeviceType[] DEVICES;
+    private static final @Nullable ThingTypeUID[] RF_TYPES;
+    private static final Map<ThingTypeUID, Function<Thing, ThingHandler>> HANDLERS;
+
+    static {
+        Map<Integer, DeviceType> devices = new HashMap<>();
+        // thing type denotes number of channels
+        add(devices, 1, THING_TYPE_1, LAN);
+        add(devices, 2, THING_TYPE_2, LAN);
+        add(devices, 3, THING_TYPE_3, LAN);
+        add(devices, 4, THING_TYPE_4, LAN);
+        add(devices, 5, THING_TYPE_5, LAN | TELEMETRY);
+        add(devices, 6, THING_TYPE_6, LAN);
+        add(devices, 7, THING_TYPE_7, LAN);
+        add(devices, 8, THING_TYPE_8, LAN);
+        add(devices, 9, THING_TYPE_9, LAN);
+        add(devices, 14, THING_TYPE_14, LAN);
+        add(devices, 15, THING_TYPE_15, LAN_IN | TELEMETRY, Profile.TH);
+        add(devices, 181, THING_TYPE_181, LAN | TELEMETRY, Profile.TH);
+
+        add(devices, 24, THING_TYPE_24, 0);
+        add(devices, 27, THING_TYPE_27, 0);
+        add(devices, 28, THING_TYPE_28, LAN, Profile.RF_BRIDGE);
+        add(devices, 29, THING_TYPE_29, 0);
+        add(devices, 30, THING_TYPE_30, 0);
+        add(devices, 31, THING_TYPE_31, 0);
+
+        add(devices, 32, THING_TYPE_32, LAN | TELEMETRY);
+        add(devices, 190, THING_TYPE_190, TELEMETRY, Profile.POWR3);
+        add(devices, 59, THING_TYPE_59, 0);
+
+        add(devices, 66, THING_TYPE_66, 0, Profile.ZIGBEE_BRIDGE);
+        add(devices, 77, THING_TYPE_77, LAN);
+        add(devices, 78, THING_TYPE_78, LAN);
+        add(devices, 81, THING_TYPE_81, 0);
+        add(devices, 82, THING_TYPE_82, 0);
+        add(devices, 83, THING_TYPE_83, 0);
+        add(devices, 84, THING_TYPE_84, 0);
+
+        add(devices, 102, THING_TYPE_102, 0);
+        add(devices, 104, THING_TYPE_104, LAN_IN);
+        add(devices, 107, THING_TYPE_107, 0);
+        add(devices, 126, THING_TYPE_126, LAN);
+
+        // LAN capable but not supported yet
+        add(devices, 44, null, LAN);
+        add(devices, 103, null, LAN_IN);
+
+        // Zigbee sub devices
+        add(devices, 1000, THING_TYPE_ZSWITCH1, ZIGBEE);
+        add(devices, 1009, THING_TYPE_ZSWITCH1, ZIGBEE);
+        add(devices, 1256, THING_TYPE_ZSWITCH1, ZIGBEE);
+        add(devices, 1257, THING_TYPE_ZLIGHT, ZIGBEE);
+        add(devices, 1770, THING_TYPE_1770, ZIGBEE);
+        add(devices, 2026, THING_TYPE_2026, ZIGBEE);
+        add(devices, 3026, THING_TYPE_ZCONTACT, ZIGBEE);
+        add(devices, 4026, THING_TYPE_ZWATER, ZIGBEE);
+        add(devices, 2256, THING_TYPE_ZSWITCH2, ZIGBEE);
+        add(devices, 3256, THING_TYPE_ZSWITCH3, ZIGBEE);
+        add(devices, 4256, THING_TYPE_ZSWITCH4, ZIGBEE);
+
+        DEVICES = new DeviceType[devices.keySet().stream().mapToInt(Integer::intValue).max().orElse(0) + 1];
+        for (DeviceType type : devices.values()) {
+            DEVICES[type.uiid] = type;
+        }
+
+        // Rf sub devices by remote type, every remote reports 4 so they are all found as 4 button remotes
+        RF_TYPES = new ThingTypeUID[7];
+        RF_TYPES[4] = THING_TYPE_RF4;
+        RF_TYPES[6] = THING_TYPE_RF6;
+
+        Map<ThingTypeUID, Function<Thing, ThingHandler>> handlers = new HashMap<>();
+        for (ThingTypeUID type : new ThingTypeUID[] { THING_TYPE_1, THING_TYPE_6, THING_TYPE_14, THING_TYPE_27,
+                THING_TYPE_81, THING_TYPE_107 }) {
+            handlers.put(type, SonoffSwitchSingleHandler::new);
+        }
+        for (ThingTypeUID type : new ThingTypeUID[] { THING_TYPE_2, THING_TYPE_3, THING_TYPE_4, THING_TYPE_7,
+                THING_TYPE_8, THING_TYPE_9, THING_TYPE_29, THING_TYPE_30, THING_TYPE_31, THING_TYPE_77, THING_TYPE_78,
+                THING_TYPE_82, THING_TYPE_83, THING_TYPE_84, THING_TYPE_126 }) {
+            handlers.put(type, SonoffSwitchMultiHandler::new);
+        }
+        handlers.put(THING_TYPE_5, SonoffSwitchPOWHandler::new);
+        handlers.put(THING_TYPE_15, SonoffSwitchTHHandler::new);
+        handlers.put(THING_TYPE_181, SonoffSwitchTHHandler::new);
+        handlers.put(THING_TYPE_24, SonoffGSMSocketHandler::new);
+        handlers.put(THING_TYPE_28, thing -> new SonoffRfBridgeHandler((Bridge) thing));
+        handlers.put(THING_TYPE_32, SonoffSwitchPOWR2Handler::new);
+        handlers.put(THING_TYPE_190, SonoffSwitchPOWR3Handler::new);
+        handlers.put(THING_TYPE_59, SonoffRGBStripHandler::new);
+        handlers.put(THING_TYPE_66, thing -> new SonoffZigbeeBridgeHandler((Bridge) thing));
+        handlers.put(THING_TYPE_102, SonoffMagneticSwitchHandler::new);
+        handlers.put(THING_TYPE_104, SonoffRGBCCTHandler::new);
+        handlers.put(THING_TYPE_1770, SonoffZigbeeDevice1770Handler::new);
+        handlers.put(THING_TYPE_2026, SonoffZigbeeDevice2026Handler::new);
+        for (ThingTypeUID type : new ThingTypeUID[] { THING_TYPE_RF1, THING_TYPE_RF2, THING_TYPE_RF3, THING_TYPE_RF4,
+                THING_TYPE_RF6 }) {
+            handlers.put(type, SonoffRfDeviceHandler::new);
+        }
+        HANDLERS = Map.copyOf(handlers);
+    }
+
+    private SonoffDeviceTypes() {
+    }
+
+    private static void add(Map<Integer, DeviceType> devices, int uiid, @Nullable ThingTypeUID thingTypeUID,
+            int flags) {
+        add(devices, uiid, thingTypeUID, flags, Profile.STANDARD);
+    }
+
+    private static void add(Map<Integer, DeviceType> devices, int uiid, @Nullable ThingTypeUID thingTypeUID, int flags,
+            Profile profile) {
+        devices.put(uiid, new DeviceType(uiid, thingTypeUID, flags, profile));
+    }
+
+    /**
+     * @return the device or zigbee sub device type of the uiid or null if it is not known
+     */
+    public static @Nullable DeviceType get(int uiid) {
+        return uiid >= 0 && uiid < DEVICES.length ? DEVICES[uiid] : null;
+    }
+
+    /**
+     * @return the thing type a device of the account is discovered as, null for zigbee sub devices
+     */
+    public static @Nullable ThingTypeUID getDeviceThingType(int uiid) {
+        DeviceType type = get(uiid);
+        return type != null && !type.isZigbee() ? type.thingTypeUID : null;
+    }
+
+    public static @Nullable ThingTypeUID getZigbeeThingType(int uiid) {
+        DeviceType type = get(uiid);
+        return type != null && type.isZigbee() ? type.thingTypeUID : null;
+    }
+
+    public static @Nullable ThingTypeUID getRfThingType(int remoteType) {
+        return remoteType >= 0 && remoteType < RF_TYPES.length ? RF_TYPES[remoteType] : null;
+    }
+
+    public static boolean isLanIn(int uiid) {
+        DeviceType type = get(uiid);
+        return type != null && type.isLanIn();
+    }
+
+    public static boolean isLanOut(int uiid) {
+        DeviceType type = get(uiid);
+        return type != null && type.isLanOut();
+    }
+
+    public static boolean hasTelemetry(int uiid) {
+        DeviceType type = get(uiid);
+        return type != null && type.hasTelemetry();
+    }
+
+    public static Profile getProfile(int uiid) {
+        DeviceType type = get(uiid);
+        return type != null ? type.profile : Profile.STANDARD;
+    }
+
+    /**
+     * @return a new handler for the thing or null if its type has no handler
+     */
+    public static @Nullable ThingHandler createHandler(Thing thing) {
+        Function<Thing, ThingHandler> handler = HANDLERS.get(thing.getThingTypeUID());
+        return handler != null ? handler.apply(thing) : null;
+    }
+}
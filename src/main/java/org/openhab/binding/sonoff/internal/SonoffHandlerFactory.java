@@ -18,13 +18,7 @@ import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.websocket.client.WebSocketClient;
-import org.openhab.binding.sonoff.internal.handler.*;
 import org.openhab.binding.sonoff.internal.handler.SonoffAccountHandler;
-import org.openhab.binding.sonoff.internal.handler.SonoffRfBridgeHandler;
-import org.openhab.binding.sonoff.internal.handler.SonoffRfDeviceHandler;
-import org.openhab.binding.sonoff.internal.handler.SonoffZigbeeBridgeHandler;
-import org.openhab.binding.sonoff.internal.handler.SonoffZigbeeDevice1770Handler;
-import org.openhab.binding.sonoff.internal.handler.SonoffZigbeeDevice2026Handler;
 import org.openhab.core.io.net.http.HttpClientFactory;
 import org.openhab.core.io.net.http.WebSocketFactory;
 import org.openhab.core.thing.Bridge;
@@ -35,7 +29,10 @@ import org.openhab.core.thing.binding.ThingHandler;
 import org.openhab.core.thing.binding.ThingHandlerFactory;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * The {@link sonoffHandlerFactory} is responsible for creating things and thing
@@ -47,8 +44,18 @@ import org.osgi.service.component.annotations.Reference;
 @Component(configurationPid = "binding.sonoff", service = ThingHandlerFactory.class)
 
 public class SonoffHandlerFactory extends BaseThingHandlerFactory {
+    // Devices answer quickly or not at all so fail the connection early
+    private static final long LAN_CONNECT_TIMEOUT_MS = 2000;
+    // How long idle connections to a device are kept open for reuse
+    private static final long LAN_IDLE_TIMEOUT_MS = 30000;
+    // Connections and waiting requests allowed per device
+    private static final int LAN_CONNECTIONS_PER_DEVICE = 2;
+    private static final int LAN_QUEUED_PER_DEVICE = 16;
+
+    private final Logger logger = LoggerFactory.getLogger(SonoffHandlerFactory.class);
     private final WebSocketClient websocketClient;
     private final HttpClient httpClient;
+    private final HttpClient lanHttpClient;
 
     @Override
     public boolean supportsThingType(ThingTypeUID thingTypeUID) {
@@ -60,71 +67,33 @@ public class SonoffHandlerFactory extends BaseThingHandlerFactory {
             final @Reference HttpClientFactory httpClientFactory) {
         this.websocketClient = webSocketFactory.getCommonWebSocketClient();
         this.httpClient = httpClientFactory.getCommonHttpClient();
+        // Local devices get their own client so its timeouts and pool limits do not affect the shared one
+        this.lanHttpClient = httpClientFactory.createHttpClient(BINDING_ID + "-lan");
+        lanHttpClient.setConnectTimeout(LAN_CONNECT_TIMEOUT_MS);
+        lanHttpClient.setIdleTimeout(LAN_IDLE_TIMEOUT_MS);
+        lanHttpClient.setMaxConnectionsPerDestination(LAN_CONNECTIONS_PER_DEVICE);
+        lanHttpClient.setMaxRequestsQueuedPerDestination(LAN_QUEUED_PER_DEVICE);
+        try {
+            lanHttpClient.start();
+        } catch (Exception e) {
+            logger.warn("Unable to start the LAN http client: {}", e.getMessage());
+        }
+    }
+
+    @Deactivate
+    public void deactivate() {
+        try {
+            lanHttpClient.stop();
+        } catch (Exception e) {
+            logger.debug("Unable to stop the LAN http client: {}", e.getMessage());
+        }
     }
 
     @Override
     protected @Nullable ThingHandler createHandler(Thing thing) {
-        String id = thing.getThingTypeUID().getId();
-        switch (id) {
-            case "account":
-                return new SonoffAccountHandler((Bridge) thing, websocketClient, httpClient);
-            case "1":
-            case "6":
-            case "14":
-            case "27":
-            case "81":
-            case "107":
-                return new SonoffSwitchSingleHandler(thing);
-            case "2":
-            case "3":
-            case "4":
-            case "7":
-            case "8":
-            case "9":
-            case "29":
-            case "30":
-            case "31":
-            case "77":
-            case "78":
-            case "82":
-            case "83":
-            case "84":
-            case "126":
-                return new SonoffSwitchMultiHandler(thing);
-            case "5":
-                return new SonoffSwitchPOWHandler(thing);
-            case "15":
-            case "181":
-                return new SonoffSwitchTHHandler(thing);
-            case "24":
-                return new SonoffGSMSocketHandler(thing);
-            case "28":
-                return new SonoffRfBridgeHandler((Bridge) thing);
-            case "32":
-                return new SonoffSwitchPOWR2Handler(thing);
-            case "190":
-                return new SonoffSwitchPOWR3Handler(thing);
-            case "59":
-                return new SonoffRGBStripHandler(thing);
-            case "66":
-                return new SonoffZigbeeBridgeHandler((Bridge) thing);
-            case "102":
-                return new SonoffMagneticSwitchHandler(thing);
-            case "104":
-                return new SonoffRGBCCTHandler(thing);
-            case "1770":
-                return new SonoffZigbeeDevice1770Handler(thing);
-            case "2026":
-                return new SonoffZigbeeDevice2026Handler(thing);
-            case "rfremote1":
-            case "rfremote2":
-            case "rfremote3":
-            case "rfremote4":
-            case "rfsensor":
-                return new SonoffRfDeviceHandler(thing);
-
-            default:
-                return null;
+        if (THING_TYPE_ACCOUNT.equals(thing.getThingTypeUID())) {
+            return new SonoffAccountHandler((Bridge) thing, websocketClient, httpClient, lanHttpClient);
         }
+        return SonoffDeviceTypes.createHandler(thing);
     }
 }
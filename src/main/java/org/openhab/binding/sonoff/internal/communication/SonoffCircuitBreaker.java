@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.sonoff.internal.communication;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link SonoffCircuitBreaker} stops commands being sent to a device that keeps timing out. After
+ * {@code threshold} timeouts in a row it opens and commands fail fast. Once the open period has passed and the device
+ * is reported as reachable again it goes half open and lets a single command through as a probe, the rest fail fast
+ * until the probe is answered, which closes it, or times out, which opens it again. A probe that is dropped before
+ * either happens makes way for the next command. It is not thread safe, the {@link SonoffCommunicationManager} guards
+ * all access.
+ *
+ * @author David Murton - Initial contribution
+ */
+@NonNullByDefault
+public class SonoffCircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String deviceid;
+    private final int threshold;
+    private final long openMs;
+    private State state = State.CLOSED;
+    private int failures = 0;
+    private long openUntil = 0;
+    // Sequence of the command let through while half open, 0 if there is none
+    private long probe = 0;
+
+    public SonoffCircuitBreaker(String deviceid, int threshold, long openMs) {
+        this.deviceid = deviceid;
+        this.threshold = threshold;
+        this.openMs = openMs;
+    }
+
+    public String getDeviceid() {
+        return this.deviceid;
+    }
+
+    public State getState() {
+        return this.state;
+    }
+
+    /**
+     * @param reachable whether the device is currently reported online by the connections in use
+     * @param sequence the sequence of the command, a retry of the probe is let through again
+     * @return false if commands for the device should fail fast
+     */
+    public boolean allowRequest(boolean reachable, long sequence) {
+        if (state == State.OPEN) {
+            if (!reachable || System.currentTimeMillis() < openUntil) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            probe = 0;
+        }
+        if (state == State.HALF_OPEN) {
+            if (probe != 0 && probe != sequence) {
+                return false;
+            }
+            probe = sequence;
+        }
+        return true;
+    }
+
+    /**
+     * Records that a command was dropped without being answered or timing out, if it was the probe another command may
+     * take its place
+     */
+    public void abandoned(long sequence) {
+        if (state == State.HALF_OPEN && probe == sequence) {
+            probe = 0;
+        }
+    }
+
+    public boolean isProbing(long sequence) {
+        return state == State.HALF_OPEN && probe == sequence;
+    }
+
+    /**
+     * Records a timeout
+     *
+     * @return true if this timeout opened the breaker
+     */
+    public boolean failure() {
+        failures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= threshold)) {
+            state = State.OPEN;
+            probe = 0;
+            openUntil = System.currentTimeMillis() + openMs;
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isOpen() {
+        return state == State.OPEN;
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.sonoff.internal.communication;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link SonoffCommandLane} holds the outgoing messages for a single device and counts how many of them are in
+ * flight. It is not thread safe, the {@link SonoffCommunicationManager} guards all access.
+ *
+ * Ordering: each {@link SonoffCommandPriority} has its own queue and a message is only taken from a class when every
+ * class before it is empty, so user commands always go before refreshes, telemetry and polling. Within a class messages
+ * are sent in the order they were queued. A message with a {@link SonoffCommandMessage#getCoalesceKey()} replaces a
+ * queued message with the same key that has not been sent yet, the older one is dropped and the newer one joins the
+ * tail of its class. It is therefore sent after every other message of its class that was queued before it, so the last
+ * value written for each command type always wins. Messages of different command types are never merged. A retry goes
+ * back to the head of its class unless a newer message with the same key is already queued or the class is full. When
+ * a class is full its own drop policy decides whether the oldest or the new message is dropped, a message never evicts
+ * one of another class. There is no ordering between devices.
+ *
+ * @author David Murton - Initial contribution
+ */
+@NonNullByDefault
+public class SonoffCommandLane {
+
+    private static final SonoffCommandPriority[] PRIORITIES = SonoffCommandPriority.values();
+
+    private final String deviceid;
+    private final Map<SonoffCommandPriority, Deque<SonoffCommandMessage>> queues = new EnumMap<>(
+            SonoffCommandPriority.class);
+    private int size = 0;
+    private int inFlight = 0;
+
+    public SonoffCommandLane(String deviceid) {
+        this.deviceid = deviceid;
+        for (SonoffCommandPriority priority : PRIORITIES) {
+            queues.put(priority, new ArrayDeque<>());
+        }
+    }
+
+    public String getDeviceid() {
+        return this.deviceid;
+    }
+
+    /**
+     * Adds a message to the tail of its class
+     *
+     * @return the message that was replaced or dropped to make room, which may be the new message itself
+     */
+    public @Nullable SonoffCommandMessage add(SonoffCommandMessage message) {
+        Deque<SonoffCommandMessage> queue = queue(message);
+        SonoffCommandMessage replaced = remove(queue, message.getCoalesceKey());
+        if (replaced == null && queue.size() >= message.getPriority().getCapacity()) {
+            if (!message.getPriority().dropOldest()) {
+                return message;
+            }
+            replaced = queue.poll();
+            size--;
+        }
+        queue.add(message);
+        size++;
+        return replaced;
+    }
+
+    /**
+     * Puts a message that has to be resent back at the head of its class
+     *
+     * @return false if the message was dropped because a newer one with the same key is queued or the class is full
+     */
+    public boolean retry(SonoffCommandMessage message) {
+        Deque<SonoffCommandMessage> queue = queue(message);
+        if (queue.size() >= message.getPriority().getCapacity()) {
+            return false;
+        }
+        String key = message.getCoalesceKey();
+        if (key != null) {
+            for (SonoffCommandMessage queued : queue) {
+                if (key.equals(queued.getCoalesceKey())) {
+                    return false;
+                }
+            }
+        }
+        queue.addFirst(message);
+        size++;
+        return true;
+    }
+
+    private @Nullable SonoffCommandMessage remove(Deque<SonoffCommandMessage> queue, @Nullable String key) {
+        if (key == null) {
+            return null;
+        }
+        Iterator<SonoffCommandMessage> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            SonoffCommandMessage queued = iterator.next();
+            if (key.equals(queued.getCoalesceKey())) {
+                iterator.remove();
+                size--;
+                return queued;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes a queued message that no longer needs to be sent
+     */
+    public boolean remove(SonoffCommandMessage message) {
+        if (queue(message).remove(message)) {
+            size--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes the next queued message without counting it as in flight
+     */
+    public @Nullable SonoffCommandMessage poll() {
+        for (SonoffCommandPriority priority : PRIORITIES) {
+            SonoffCommandMessage message = queues.get(priority).poll();
+            if (message != null) {
+                size--;
+                return message;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Takes the next message if the in flight window allows it, a window of 0 or less is unlimited
+     */
+    public @Nullable SonoffCommandMessage take(int window) {
+        if (window > 0 && inFlight >= window) {
+            return null;
+        }
+        SonoffCommandMessage message = poll();
+        if (message != null) {
+            inFlight++;
+        }
+        return message;
+    }
+
+    public void release() {
+        if (inFlight > 0) {
+            inFlight--;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean hasQueued() {
+        return size > 0;
+    }
+
+    public boolean isIdle() {
+        return size == 0 && inFlight == 0;
+    }
+
+    private Deque<SonoffCommandMessage> queue(SonoffCommandMessage message) {
+        return queues.get(message.getPriority());
+    }
+}
@@ -15,6 +15,8 @@ package org.openhab.binding.sonoff.internal.communication;
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
 import org.openhab.binding.sonoff.internal.dto.commands.AbstractCommand;
+import org.openhab.binding.sonoff.internal.dto.commands.MultiSwitch;
+import org.openhab.binding.sonoff.internal.dto.commands.SingleSwitch;
 
 /**
  * The {@link SonoffCommandMessage} creates a new message to be sent to Ewelink devices
@@ -80,4 +82,54 @@ public class SonoffCommandMessage {
     public @Nullable AbstractCommand<?> getParams() {
         return this.params;
     }
+
+    /**
+     * Returns the class the message is queued in, local polls are switch requests without a value
+     */
+    public SonoffCommandPriority getPriority() {
+        switch (command) {
+            case "device":
+            case "devices":
+                return SonoffCommandPriority.REFRESH;
+            case "uiActive":
+            case "consumption":
+                return SonoffCommandPriority.TELEMETRY;
+            case "switch":
+            case "switches":
+                return getCoalesceKey() == null ? SonoffCommandPriority.BACKGROUND : SonoffCommandPriority.USER;
+            default:
+                return SonoffCommandPriority.USER;
+        }
+    }
+
+    /**
+     * Returns the key used to replace an older queued message of the same kind for the device, or null if the message
+     * should never be replaced. Polling messages without a value are never replaced by commands and vice versa, and a
+     * command only replaces one with the same type of params.
+     */
+    public @Nullable String getCoalesceKey() {
+        final AbstractCommand<?> params = this.params;
+        switch (command) {
+            case "switch":
+                return params instanceof SingleSwitch && ((SingleSwitch) params).getSwitch() != null ? command : null;
+            case "switches":
+                if (params instanceof MultiSwitch && !((MultiSwitch) params).getSwitches().isEmpty()) {
+                    StringBuilder key = new StringBuilder(command);
+                    for (MultiSwitch.Switch outlet : ((MultiSwitch) params).getSwitches()) {
+                        key.append(':').append(outlet.getOutlet());
+                    }
+                    return key.toString();
+                }
+                return null;
+            case "brightness":
+            case "color":
+            case "colorTemperature":
+            case "speed":
+            case "sensitivity":
+                // The same command can set different things, white and colour brightness are both brightness
+                return params != null ? command + ':' + params.getClass().getSimpleName() : command;
+            default:
+                return null;
+        }
+    }
 }
@@ -13,23 +13,27 @@
 package org.openhab.binding.sonoff.internal.communication;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.crypto.Cipher;
 import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
 
-import com.google.gson.JsonObject;
-
 /**
  * The {@link SonoffCommandMessageEncryptionUtilities} contains uitilities that are used accross the binding
  *
@@ -44,6 +48,18 @@ public class SonoffCommandMessageEncryptionUtilities {
     private static final String DIGESTALG = "MD5";
     private static final Charset CHARSET = StandardCharsets.UTF_8;
 
+    private static final int[] DECODE = new int[128];
+    static {
+        Arrays.fill(DECODE, -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            DECODE[alphabet.charAt(i)] = i;
+        }
+    }
+
+    // Derived keys and ciphers by deviceid
+    private final Map<String, CryptoContext> contexts = new ConcurrentHashMap<>();
+
     public String getAuthMac(String appSecret, String data)
             throws UnsupportedEncodingException, NoSuchAlgorithmException, InvalidKeyException {
         Mac mac = null;
@@ -55,57 +71,102 @@ public class SonoffCommandMessageEncryptionUtilities {
         return Base64.getEncoder().encodeToString(macData);
     }
 
-    public String encrypt(String params, String deviceKey, String deviceId, Long sequence) {
-        try {
-            byte[] keyBytes = deviceKey.getBytes(CHARSET);
-            byte[] byteToEncrypt = params.getBytes(CHARSET);
-            MessageDigest digest = MessageDigest.getInstance(DIGESTALG);
-            digest.update(keyBytes);
-            byte[] key = digest.digest();
-            SecretKeySpec secretKeySpec = new SecretKeySpec(key, KEYALG);
-            Cipher cipher = Cipher.getInstance(ENCRYPTION);
-            cipher.init(Cipher.ENCRYPT_MODE, secretKeySpec);
-            AlgorithmParameters p = cipher.getParameters();
-            byte[] iv = p.getParameterSpec(IvParameterSpec.class).getIV();
-            byte[] ciphertext = cipher.doFinal(byteToEncrypt);
-            String ivEncoded = new String(Base64.getEncoder().encode(iv), CHARSET);
-            String payloadEncoded = new String(Base64.getEncoder().encode(ciphertext), CHARSET);
-            JsonObject newPayload = new JsonObject();
-            newPayload.addProperty("sequence", sequence + "");
-            newPayload.addProperty("deviceid", deviceId);
-            newPayload.addProperty("selfApikey", "123");
-            newPayload.addProperty("iv", ivEncoded);
-            newPayload.addProperty("encrypt", true);
-            newPayload.addProperty("data", payloadEncoded);
+    /**
+     * Encrypts the first length bytes of input with a new random iv
+     *
+     * @param iv receives the 16 byte iv that was used
+     * @return the ciphertext
+     */
+    public byte[] encrypt(byte[] input, int length, String deviceId, String deviceKey, byte[] iv)
+            throws GeneralSecurityException {
+        CryptoContext context = getContext(deviceId, deviceKey);
+        synchronized (context) {
+            Cipher cipher = context.cipher;
+            cipher.init(Cipher.ENCRYPT_MODE, context.key);
+            byte[] ciphertext = cipher.doFinal(input, 0, length);
+            System.arraycopy(cipher.getIV(), 0, iv, 0, iv.length);
+            return ciphertext;
+        }
+    }
 
-            return newPayload.toString();
-        } catch (Exception e) {
-            return "";
+    /**
+     * Base64 decodes the data fragments of a LAN frame one after the other into a single buffer and decrypts it in
+     * place, the fragments are not joined first
+     *
+     * @return the plaintext
+     */
+    public ByteBuffer decrypt(List<String> fragments, String iv, String deviceId, String deviceKey)
+            throws GeneralSecurityException {
+        int length = 0;
+        for (String fragment : fragments) {
+            length += fragment.length();
+        }
+        byte[] buffer = new byte[length / 4 * 3 + 3];
+        int pos = 0;
+        int bits = 0;
+        int count = 0;
+        for (String fragment : fragments) {
+            for (int i = 0; i < fragment.length(); i++) {
+                char c = fragment.charAt(i);
+                if (c == '=') {
+                    break;
+                }
+                int value = c < 128 ? DECODE[c] : -1;
+                if (value < 0) {
+                    throw new IllegalArgumentException("Invalid base64 character in LAN data");
+                }
+                bits = bits << 6 | value;
+                if (++count == 4) {
+                    buffer[pos++] = (byte) (bits >> 16);
+                    buffer[pos++] = (byte) (bits >> 8);
+                    buffer[pos++] = (byte) bits;
+                    bits = 0;
+                    count = 0;
+                }
+            }
         }
+        if (count == 2) {
+            buffer[pos++] = (byte) (bits >> 4);
+        } else if (count == 3) {
+            buffer[pos++] = (byte) (bits >> 10);
+            buffer[pos++] = (byte) (bits >> 2);
+        }
+        IvParameterSpec ivSpec = new IvParameterSpec(Base64.getDecoder().decode(iv));
+        CryptoContext context = getContext(deviceId, deviceKey);
+        synchronized (context) {
+            Cipher cipher = context.cipher;
+            cipher.init(Cipher.DECRYPT_MODE, context.key, ivSpec);
+            int plaintext = cipher.doFinal(buffer, 0, pos, buffer, 0);
+            return ByteBuffer.wrap(buffer, 0, plaintext);
+        }
+    }
+
+    // The cached context is replaced whenever the device key no longer matches
+    private CryptoContext getContext(String deviceId, String deviceKey)
+            throws NoSuchAlgorithmException, NoSuchPaddingException {
+        CryptoContext context = contexts.get(deviceId);
+        if (context == null || !context.deviceKey.equals(deviceKey)) {
+            context = new CryptoContext(deviceKey);
+            contexts.put(deviceId, context);
+        }
+        return context;
     }
 
-    public String decrypt(JsonObject payload, String deviceKey) {
-        try {
-            MessageDigest md = MessageDigest.getInstance(DIGESTALG);
-            byte[] bytesOfMessage = deviceKey.getBytes(CHARSET);
-            byte[] keyBytes = md.digest(bytesOfMessage);
-            SecretKeySpec key = new SecretKeySpec(keyBytes, KEYALG);
-            String data1 = payload.get("data1") != null ? payload.get("data1").getAsString() : "";
-            String data2 = payload.get("data2") != null ? payload.get("data2").getAsString() : "";
-            String data3 = payload.get("data3") != null ? payload.get("data3").getAsString() : "";
-            String data4 = payload.get("data4") != null ? payload.get("data4").getAsString() : "";
-            String encoded = data1 + data2 + data3 + data4;
-            Cipher cipher = Cipher.getInstance(ENCRYPTION);
-            byte[] ciphertext = Base64.getDecoder().decode(encoded);
-            String ivString = payload.get("iv").getAsString();
-            byte[] ivBytes = Base64.getDecoder().decode(ivString);
-            IvParameterSpec iv = new IvParameterSpec(ivBytes);
-            cipher.init(Cipher.DECRYPT_MODE, key, iv);
-            byte[] decodedBytes = cipher.doFinal(ciphertext);
-            String decoded = new String(decodedBytes, StandardCharsets.UTF_8);
-            return decoded;
-        } catch (Exception e) {
-            return "";
+    /**
+     * The AES key derived from a device key and a cipher to use it with. The cipher is not thread safe so it is only
+     * used while holding the context's lock.
+     */
+    private static class CryptoContext {
+
+        private final String deviceKey;
+        private final SecretKeySpec key;
+        private final Cipher cipher;
+
+        private CryptoContext(String deviceKey) throws NoSuchAlgorithmException, NoSuchPaddingException {
+            this.deviceKey = deviceKey;
+            MessageDigest digest = MessageDigest.getInstance(DIGESTALG);
+            this.key = new SecretKeySpec(digest.digest(deviceKey.getBytes(CHARSET)), KEYALG);
+            this.cipher = Cipher.getInstance(ENCRYPTION);
         }
     }
 }
@@ -14,6 +14,7 @@ package org.openhab.binding.sonoff.internal.communication;
 
 import java.security.SecureRandom;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
 
@@ -38,6 +39,8 @@ public class SonoffCommandMessageUtilities {
     private static final String AB = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
     public static final Integer VERSION = 8;
     private static SecureRandom rnd = new SecureRandom();
+    // Last sequence handed out, shared by every account so acks can never be matched to the wrong message
+    private static final AtomicLong sequence = new AtomicLong();
 
     static String randomString(int len) {
         StringBuilder sb = new StringBuilder(len);
@@ -50,8 +53,13 @@ public class SonoffCommandMessageUtilities {
         return randomString(8);
     }
 
-    public static synchronized Long getSequence() {
-        return new Date().getTime();
+    /**
+     * Sequences stay millisecond timestamps as expected by the cloud and the LAN firmware, but when several are
+     * requested in the same millisecond each one is moved on by one so they are unique and always increasing
+     */
+    public static Long getSequence() {
+        long now = System.currentTimeMillis();
+        return sequence.accumulateAndGet(now, (last, time) -> Math.max(last + 1, time));
     }
 
     public static synchronized Long getTs() {
@@ -0,0 +1,52 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.sonoff.internal.communication;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link SonoffCommandPriority} defines the classes of outgoing messages in the order they are sent, along with how
+ * many of each a device can have queued and which message is dropped when that is exceeded.
+ *
+ * @author David Murton - Initial contribution
+ */
+@NonNullByDefault
+public enum SonoffCommandPriority {
+    // Commands from items, the newest value is the one the user wants
+    USER(100, true),
+    // Api device state requests, one queued request already covers a newer one
+    REFRESH(1, false),
+    // Streaming data activation and consumption requests
+    TELEMETRY(2, true),
+    // Local polling, one queued poll already covers a newer one
+    BACKGROUND(1, false);
+
+    private final int capacity;
+    private final boolean dropOldest;
+
+    private SonoffCommandPriority(int capacity, boolean dropOldest) {
+        this.capacity = capacity;
+        this.dropOldest = dropOldest;
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * @return true if the oldest queued message is dropped when full, false if the new message is dropped
+     */
+    public boolean dropOldest() {
+        return this.dropOldest;
+    }
+}
@@ -12,13 +12,25 @@
  */
 package org.openhab.binding.sonoff.internal.communication;
 
-import java.util.Enumeration;
-import java.util.concurrent.BlockingDeque;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.jmdns.ServiceEvent;
 import javax.jmdns.ServiceInfo;
@@ -26,8 +38,6 @@ import javax.jmdns.ServiceInfo;
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
 import org.openhab.binding.sonoff.internal.connection.SonoffConnectionManagerListener;
-import org.openhab.binding.sonoff.internal.dto.commands.MultiSwitch;
-import org.openhab.binding.sonoff.internal.dto.commands.SingleSwitch;
 import org.openhab.binding.sonoff.internal.dto.requests.WebsocketRequest;
 import org.openhab.binding.sonoff.internal.dto.responses.LanResponse;
 import org.openhab.binding.sonoff.internal.handler.SonoffDeviceListener;
@@ -39,35 +49,87 @@ import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 /**
- * The {@link SonoffCommunicationManager} provides a sequential queue for outgoing messages accross connections and
- * allows for retrying when messages are not delivered correctly
+ * The {@link SonoffCommunicationManager} provides a queue for outgoing messages accross connections and
+ * allows for retrying when messages are not delivered correctly.
+ *
+ * A single long lived dispatcher thread wakes as soon as a message is queued and sends it straight away, it does not
+ * wait for the ok response. Responses are matched back to their message by sequence through the
+ * {@link SonoffPendingRequests} table and the dispatcher expires unanswered messages from a {@link SonoffTimeoutWheel}
+ * so that many messages can be in flight at once without a timer per message.
+ *
+ * Each device has its own {@link SonoffCommandLane} with a bounded number of messages in flight. The dispatcher takes
+ * from the lanes in round robin order so a device that is timing out only holds up its own messages. Retries wait an
+ * exponential backoff with jitter and a {@link SonoffCircuitBreaker} stops sending to a device that keeps timing out.
+ *
+ * Api device refreshes are collected for a short window and requested together in a single call, the response is
+ * then processed for each device as before.
  *
  * @author David Murton - Initial contribution
  */
 @NonNullByDefault
 public class SonoffCommunicationManager implements Runnable, SonoffConnectionManagerListener {
 
-    private static final int QUEUE_SIZE = 100;
+    // Maximum number of messages awaiting a response across all devices
+    private static final int PENDING_SIZE = 1024;
+    private static final int MAX_RETRIES = 3;
+    // Timeout wheel resolution, 512 ticks of 50ms covers 25 seconds per turn
+    private static final int WHEEL_SIZE = 512;
+    private static final int TICK_MS = 50;
+    private static final long MAX_RETRY_DELAY_MS = 30000;
+    // How long commands fail fast once a device stops responding
+    private static final long BREAKER_OPEN_MS = 30000;
+    // Time to collect api device refreshes for and the most devices requested in one call
+    private static final long REFRESH_BATCH_MS = 200;
+    private static final int REFRESH_BATCH_SIZE = 20;
+    // Number of locks device state updates are spread over
+    private static final int STATE_LOCKS = 64;
 
     private final Logger logger = LoggerFactory.getLogger(SonoffCommunicationManager.class);
     // Queue Utilities
-    // Map of message retry attempts
-    private final ConcurrentMap<Long, CountDownLatch> latchMap = new ConcurrentHashMap<>();
-    // Queue of messages to send
-    private final BlockingDeque<SonoffCommandMessage> queue = new LinkedBlockingDeque<>();
-    // Map of Integers so we can count retry attempts.
-    private final ConcurrentMap<Long, Integer> retryCountMap = new ConcurrentHashMap<>();
-    // Map of our message types so we can process them correctly
-    private final ConcurrentMap<Long, String> messageTypes = new ConcurrentHashMap<>();
+    // Lanes of messages to send, one per device
+    private final Map<String, SonoffCommandLane> lanes = new HashMap<>();
+    // Lanes with queued messages in round robin order
+    private final Deque<SonoffCommandLane> rotation = new ArrayDeque<>();
+    // Messages awaiting a response, including those waiting to be retried
+    private final SonoffPendingRequests pending = new SonoffPendingRequests(PENDING_SIZE);
+    // Timeouts of the messages in flight and backoffs of the messages to retry
+    private final SonoffTimeoutWheel timeouts = new SonoffTimeoutWheel(WHEEL_SIZE, TICK_MS);
+    // Breakers of devices that have timed out since they last answered
+    private final Map<String, SonoffCircuitBreaker> breakers = new HashMap<>();
+    // Serialises the state updates of each device
+    private final Object[] stateLocks = new Object[STATE_LOCKS];
+    // Drops repeated mDNS frames before they are decrypted
+    private final SonoffLanFrameFilter lanFrames = new SonoffLanFrameFilter();
+    // Devices waiting for a batched api refresh and when the batch is sent
+    private final Set<String> refreshBatch = new LinkedHashSet<>();
+    private long refreshDue = 0;
+    // Guards the lanes, pending requests and timeouts
+    private final ReentrantLock queueLock = new ReentrantLock();
+    private final Condition messageReady = queueLock.newCondition();
     // Timeout
     private final int timeoutForOkMessagesMs = 1000;
+    // Maximum number of messages in flight per device, 0 is unlimited
+    private int window = 1;
+    // Delay before the first retry, doubled for each further retry
+    private int retryDelayMs = 500;
+    // Timeouts in a row before a device's breaker opens, 0 disables it
+    private int breakerThreshold = 5;
     // Boolean to indicate if we are running
     private boolean running;
+    // Thread sending the messages in the queue
+    private @Nullable Thread dispatcher;
 
     private final Gson gson;
     private final SonoffCommunicationManagerListener listener;
+    // Keeps the derived LAN keys of each device
+    private final SonoffCommandMessageEncryptionUtilities encryption = new SonoffCommandMessageEncryptionUtilities();
+    private final SonoffLanPayloadEncoder lanEncoder;
 
     private String mode = "";
     private String apiKey = "";
@@ -78,19 +140,46 @@ public class SonoffCommunicationManager implements Runnable, SonoffConnectionMan
     public SonoffCommunicationManager(SonoffCommunicationManagerListener listener, Gson gson) {
         this.gson = gson;
         this.listener = listener;
+        this.lanEncoder = new SonoffLanPayloadEncoder(gson, encryption);
+        for (int i = 0; i < STATE_LOCKS; i++) {
+            stateLocks[i] = new Object();
+        }
     }
 
-    public synchronized void start(String mode) {
+    public synchronized void start(String mode, Integer window, Integer retryDelayMs, Integer breakerThreshold) {
         this.mode = mode;
+        this.window = window.intValue();
+        this.retryDelayMs = retryDelayMs.intValue();
+        this.breakerThreshold = breakerThreshold.intValue();
         startRunning();
+        Thread dispatcher = this.dispatcher;
+        if (dispatcher == null || !dispatcher.isAlive()) {
+            dispatcher = new Thread(this, "OH-binding-sonoff-dispatcher");
+            dispatcher.setDaemon(true);
+            dispatcher.start();
+            this.dispatcher = dispatcher;
+        }
     }
 
     public synchronized void stop() {
         stopRunning();
-        queue.clear();
-        retryCountMap.clear();
-        latchMap.clear();
-        messageTypes.clear();
+        final Thread dispatcher = this.dispatcher;
+        if (dispatcher != null) {
+            dispatcher.interrupt();
+            this.dispatcher = null;
+        }
+        queueLock.lock();
+        try {
+            lanes.clear();
+            rotation.clear();
+            pending.clear();
+            timeouts.clear();
+            breakers.clear();
+            refreshBatch.clear();
+        } finally {
+            queueLock.unlock();
+        }
+        lanFrames.clear();
     }
 
     public void startRunning() {
@@ -103,59 +192,266 @@ public class SonoffCommunicationManager implements Runnable, SonoffConnectionMan
 
     @Override
     public void run() {
-        logger.debug("Message queue is running");
+        logger.debug("Message dispatcher is running");
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                SonoffCommandMessage message = takeMessage();
+                if (message == null) {
+                    sendRefreshBatch();
+                    continue;
+                }
+                if (!sendMessage(message)) {
+                    failed(message);
+                } else if (isApiRequest(message)) {
+                    // Api requests are not acknowledged
+                    releaseLane(message.getDeviceid());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                logger.warn("Error processing queued message: {}", e.getMessage());
+            }
+        }
+        logger.debug("Message dispatcher has stopped");
+    }
+
+    /**
+     * Wait until a lane has a message that can be sent, expiring any timeouts that fall due meanwhile
+     *
+     * @return the message to send, or null when the batch of api refreshes is due
+     */
+    private @Nullable SonoffCommandMessage takeMessage() throws InterruptedException {
+        queueLock.lock();
         try {
-            // Get the first message in the queue
-            final @Nullable SonoffCommandMessage message = queue.take();
-            logger.debug("Start processing: {}. {} messages remaining in queue", message.getCommand(), queue.size());
+            while (true) {
+                timeouts.advance(this::timeout);
+                if (!refreshBatch.isEmpty() && refreshDue - System.nanoTime() <= 0) {
+                    return null;
+                }
+                SonoffCommandMessage message = nextMessage();
+                if (message != null) {
+                    return message;
+                }
+                long wait = timeouts.nanosToNextTick();
+                if (!refreshBatch.isEmpty()) {
+                    long refreshWait = Math.max(1, refreshDue - System.nanoTime());
+                    wait = wait < 0 ? refreshWait : Math.min(wait, refreshWait);
+                }
+                if (wait < 0) {
+                    messageReady.await();
+                } else {
+                    messageReady.awaitNanos(wait);
+                }
+            }
+        } finally {
+            queueLock.unlock();
+        }
+    }
 
-            if (message.getSequence().equals(0L)) {
-                message.setSequence();
+    // Take one message from the next lane that has room in its window, must hold the queue lock
+    private @Nullable SonoffCommandMessage nextMessage() {
+        for (int i = rotation.size(); i > 0; i--) {
+            SonoffCommandLane lane = rotation.poll();
+            if (lane == null) {
+                break;
             }
-            if (message.getCommand().equals("devices") || message.getCommand().equals("device")) {
-                sendMessage(message);
+            SonoffCommandMessage message = lane.take(window);
+            if (lane.hasQueued()) {
+                rotation.add(lane);
             }
-            if (message.getCommand().equals("consumption") || message.getCommand().equals("uiActive")) {
-                messageTypes.put(message.getSequence(), message.getCommand());
-                sendMessage(message);
-            } else {
-                // Add our message type so we can identify it correctly when we get the response
-                messageTypes.put(message.getSequence(), message.getCommand());
-                CountDownLatch latch = new CountDownLatch(1);
-                latchMap.putIfAbsent(message.getSequence(), latch);
-                retryCountMap.putIfAbsent(message.getSequence(), Integer.valueOf(1));
-                sendMessage(message);
-                boolean unlatched = latch.await(timeoutForOkMessagesMs, TimeUnit.MILLISECONDS);
-                latchMap.remove(message.getSequence());
-                Integer newRetryCount = 0;
-                if (!unlatched) {
-                    Integer sendCount = retryCountMap.get(message.getSequence());
-                    if (sendCount != null) {
-                        if (sendCount.intValue() >= 3) {
-                            logger.warn("Unable to send transaction {}, command was {}, after {} retry attempts",
-                                    message.getSequence(), message.getCommand(), 3);
-                            return;
-                        }
-                        newRetryCount = Integer.valueOf(sendCount.intValue() + 1);
-                    }
-                    if (!running) {
-                        logger.error("Not retrying transactionId {} as we are stopping", message.getSequence());
-                        return;
+            if (message != null && message.getCommand().equals("device")) {
+                batchRefresh(message.getDeviceid());
+                continue;
+            }
+            if (message != null && track(message)) {
+                logger.debug("Start processing: {} for {}. {} messages remaining for device", message.getCommand(),
+                        lane.getDeviceid(), lane.size());
+                return message;
+            }
+        }
+        return null;
+    }
 
-                    }
-                    logger.warn(
-                            "Ok message not received for transaction: {}, command was {}, retrying again. Retry count {}",
-                            message.getSequence(), message.getCommand(), newRetryCount);
-                    retryCountMap.put(message.getSequence(), newRetryCount);
+    // Add a device to the next api refresh, must hold the queue lock
+    private void batchRefresh(String deviceid) {
+        if (refreshBatch.isEmpty()) {
+            refreshDue = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(REFRESH_BATCH_MS);
+        }
+        refreshBatch.add(deviceid);
+        if (refreshBatch.size() >= REFRESH_BATCH_SIZE) {
+            refreshDue = System.nanoTime();
+        }
+        logger.debug("Added {} to the api refresh batch, {} devices in batch", deviceid, refreshBatch.size());
+        releaseLane(deviceid);
+    }
 
-                    addToQueue(message);
-                }
+    private void sendRefreshBatch() {
+        List<String> deviceids;
+        queueLock.lock();
+        try {
+            deviceids = new ArrayList<>(refreshBatch);
+            refreshBatch.clear();
+        } finally {
+            queueLock.unlock();
+        }
+        for (int i = 0; i < deviceids.size(); i += REFRESH_BATCH_SIZE) {
+            List<String> batch = deviceids.subList(i, Math.min(i + REFRESH_BATCH_SIZE, deviceids.size()));
+            logger.debug("Sending api refresh for {} devices", batch.size());
+            listener.sendApiMessage(batch);
+        }
+    }
+
+    // Register the message as awaiting a response and schedule its timeout, must hold the queue lock
+    private boolean track(SonoffCommandMessage message) {
+        if (message.getSequence().equals(0L)) {
+            message.setSequence();
+        }
+        if (isApiRequest(message)) {
+            return true;
+        }
+        long sequence = message.getSequence().longValue();
+        SonoffPendingRequests.Request request = pending.get(sequence);
+        if (request == null) {
+            request = new SonoffPendingRequests.Request(message);
+            if (!pending.put(request)) {
+                logger.warn("Unable to send {} for {}, too many messages are awaiting a response",
+                        message.getCommand(), message.getDeviceid());
+                forget(message);
+                releaseLane(message.getDeviceid());
+                return false;
             }
-        } catch (InterruptedException e) {
-            if (running) {
-                logger.error("Error Running queue:{}", e.getMessage());
+        }
+        request.setInFlight(true);
+        request.setDeadline(timeouts.deadline(timeoutForOkMessagesMs));
+        timeouts.schedule(sequence, request.getDeadline());
+        return true;
+    }
+
+    // Called by the timeout wheel, must hold the queue lock
+    private void timeout(long sequence, long deadline) {
+        SonoffPendingRequests.Request request = pending.get(sequence);
+        if (request == null || request.getDeadline() != deadline) {
+            // Already acknowledged or sent again since
+            return;
+        }
+        SonoffCommandMessage message = request.getMessage();
+        if (!request.isInFlight()) {
+            // Backoff is over, send it again
+            addToQueue(message, true);
+            return;
+        }
+        request.setInFlight(false);
+        releaseLane(message.getDeviceid());
+        boolean opened = recordFailure(message.getDeviceid());
+        // Streaming data activation and consumption requests are not retried
+        if (isTelemetry(message)) {
+            pending.remove(sequence);
+            return;
+        }
+        if (request.getAttempts() >= MAX_RETRIES) {
+            logger.warn("Unable to send transaction {}, command was {}, after {} retry attempts", sequence,
+                    message.getCommand(), MAX_RETRIES);
+            pending.remove(sequence);
+            return;
+        }
+        if (!running) {
+            logger.error("Not retrying transactionId {} as we are stopping", sequence);
+            pending.remove(sequence);
+            return;
+        }
+        if (opened) {
+            logger.debug("Not retrying transaction {} as {} is not responding", sequence, message.getDeviceid());
+            pending.remove(sequence);
+            return;
+        }
+        long delay = backoff(request.getAttempts());
+        request.addAttempt();
+        request.setDeadline(timeouts.deadline(delay));
+        timeouts.schedule(sequence, request.getDeadline());
+        logger.warn("Ok message not received for transaction: {}, command was {}, retrying in {}ms. Retry count {}",
+                sequence, message.getCommand(), delay, request.getAttempts());
+    }
+
+    // Exponential backoff with jitter so retries to devices that dropped together are spread out
+    private long backoff(int attempts) {
+        long delay = Math.min(MAX_RETRY_DELAY_MS, (long) retryDelayMs << Math.min(attempts - 1, 16));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    // Count a timeout against the device and drop its queued messages if that opens its breaker
+    private boolean recordFailure(String deviceid) {
+        if (breakerThreshold <= 0) {
+            return false;
+        }
+        SonoffCircuitBreaker breaker = breakers.computeIfAbsent(deviceid,
+                id -> new SonoffCircuitBreaker(id, breakerThreshold, BREAKER_OPEN_MS));
+        if (!breaker.failure()) {
+            return false;
+        }
+        logger.warn("Device {} is not responding, commands will fail fast for {} seconds", deviceid,
+                BREAKER_OPEN_MS / 1000);
+        SonoffCommandLane lane = lanes.get(deviceid);
+        if (lane != null) {
+            SonoffCommandMessage dropped;
+            while ((dropped = lane.poll()) != null) {
+                forget(dropped);
+            }
+            if (lane.isIdle()) {
+                lanes.remove(deviceid);
+                rotation.remove(lane);
             }
         }
+        return true;
+    }
+
+    // Whether a message can be queued for its device, must hold the queue lock
+    private boolean allowRequest(SonoffCommandMessage message) {
+        if (isApiRequest(message)) {
+            return true;
+        }
+        SonoffCircuitBreaker breaker = breakers.get(message.getDeviceid());
+        if (breaker == null) {
+            return true;
+        }
+        long sequence = message.getSequence().longValue();
+        boolean allowed = breaker.allowRequest(isReachable(message.getDeviceid()), sequence);
+        if (allowed && breaker.isProbing(sequence)) {
+            logger.debug("Probing {} with {} as it is reachable again", message.getDeviceid(), message.getCommand());
+        }
+        return allowed;
+    }
+
+    private boolean isReachable(String deviceid) {
+        SonoffDeviceState device = listener.getState(deviceid);
+        if (device == null) {
+            return false;
+        }
+        SonoffDeviceState state = device.getState();
+        switch (mode) {
+            case "local":
+                return state.getLocal();
+            case "cloud":
+                return state.getCloud();
+            default:
+                return state.getLocal() || state.getCloud();
+        }
+    }
+
+    // Free up the window of a lane after a message was answered or timed out
+    private void releaseLane(String deviceid) {
+        queueLock.lock();
+        try {
+            SonoffCommandLane lane = lanes.get(deviceid);
+            if (lane != null) {
+                lane.release();
+                if (lane.isIdle()) {
+                    lanes.remove(deviceid);
+                }
+            }
+            messageReady.signal();
+        } finally {
+            queueLock.unlock();
+        }
     }
 
     // Add the messsage to the queue
@@ -163,51 +459,139 @@ public class SonoffCommunicationManager implements Runnable, SonoffConnectionMan
         if (running) {
             message.setSequence();
 
-            addToQueue(message);
+            addToQueue(message, false);
         } else {
             logger.info("Message not added to queue as we are shutting down");
         }
     }
 
-    private void addToQueue(SonoffCommandMessage message) {
-        if (queue.size() >= QUEUE_SIZE) {
-            logger.debug("Queue full, removing one message from queue, {} messages in queue", queue.size());
-            queue.poll();
+    private void addToQueue(SonoffCommandMessage message, boolean retry) {
+        queueLock.lock();
+        try {
+            if (!allowRequest(message)) {
+                logger.debug("Dropped {} for {} as the device is not responding", message.getCommand(),
+                        message.getDeviceid());
+                forget(message);
+                return;
+            }
+            SonoffCommandLane lane = lanes.computeIfAbsent(message.getDeviceid(), SonoffCommandLane::new);
+            boolean queued = lane.hasQueued();
+
+            if (retry) {
+                if (!lane.retry(message)) {
+                    logger.debug("Not retrying transaction {} for {} as a newer {} is queued or the {} queue is full",
+                            message.getSequence(), lane.getDeviceid(), message.getCommand(), message.getPriority());
+                    forget(message);
+                }
+            } else {
+                SonoffCommandMessage dropped = lane.add(message);
+                if (dropped == message) {
+                    logger.debug("{} queue full for {}, dropped {} as one is already queued", message.getPriority(),
+                            lane.getDeviceid(), message.getCommand());
+                    forget(message);
+                } else if (dropped != null) {
+                    logger.debug("Dropped queued {} command for {} in favour of a newer {}", dropped.getCommand(),
+                            lane.getDeviceid(), message.getCommand());
+                    forget(dropped);
+                }
+            }
+            if (!queued && lane.hasQueued()) {
+                rotation.add(lane);
+            }
+            if (lane.isIdle()) {
+                lanes.remove(lane.getDeviceid());
+            }
+            messageReady.signal();
+
+            logger.debug("Added a message to the queue: {} for {}, {} messages in queue", message.getCommand(),
+                    lane.getDeviceid(), lane.size());
+        } finally {
+            queueLock.unlock();
         }
+    }
 
-        if (message.getCommand().equals("switch") && ((SingleSwitch) message.getParams()).getSwitch() != null
-                || message.getCommand().equals("switches")
-                        && !((MultiSwitch) message.getParams()).getSwitches().isEmpty()) {
-            queue.addFirst(message);
-        } else {
-            queue.add(message);
+    // Drop a message that could not be sent and never will be, it is not a timeout so the breaker does not count it
+    private void failed(SonoffCommandMessage message) {
+        queueLock.lock();
+        try {
+            forget(message);
+            releaseLane(message.getDeviceid());
+        } finally {
+            queueLock.unlock();
         }
+    }
 
-        logger.debug("Added a message to the queue: {}, {} messages in queue", message.getCommand(), queue.size());
+    // Drop the pending request of a message that was waiting to be retried but will not be sent, must hold the queue
+    // lock
+    private void forget(@Nullable SonoffCommandMessage message) {
+        if (message != null) {
+            long sequence = message.getSequence().longValue();
+            pending.remove(sequence);
+            SonoffCircuitBreaker breaker = breakers.get(message.getDeviceid());
+            if (breaker != null) {
+                breaker.abandoned(sequence);
+            }
+        }
     }
 
-    private void okMessage(Long sequence) {
-        CountDownLatch latch = latchMap.get(sequence);
-        if (latch != null) {
-            latch.countDown();
+    /**
+     * Marks a message as answered
+     *
+     * @return the message that was answered, or null if it was not awaiting a response
+     */
+    private @Nullable SonoffCommandMessage okMessage(long sequence) {
+        queueLock.lock();
+        try {
+            SonoffPendingRequests.Request request = pending.remove(sequence);
+            if (request == null) {
+                return null;
+            }
+            SonoffCommandMessage message = request.getMessage();
+            // Any answer shows the device is responding again
+            breakers.remove(message.getDeviceid());
+            if (request.isInFlight()) {
+                releaseLane(message.getDeviceid());
+            } else {
+                // A late answer to an earlier attempt, the retry is no longer needed if it was already queued
+                SonoffCommandLane lane = lanes.get(message.getDeviceid());
+                if (lane != null && lane.remove(message)) {
+                    if (lane.isIdle()) {
+                        lanes.remove(message.getDeviceid());
+                        rotation.remove(lane);
+                    }
+                }
+            }
+            return message;
+        } finally {
+            queueLock.unlock();
         }
     }
 
+    private boolean isApiRequest(SonoffCommandMessage message) {
+        return message.getCommand().equals("devices") || message.getCommand().equals("device");
+    }
+
+    private boolean isTelemetry(SonoffCommandMessage message) {
+        return message.getCommand().equals("consumption") || message.getCommand().equals("uiActive");
+    }
+
     /**
      * Forward messages to the appropriate connection
+     *
+     * @return false if the message cannot be sent to the device as things stand and should not be retried
      */
-    public void sendMessage(SonoffCommandMessage message) {
+    public boolean sendMessage(SonoffCommandMessage message) {
         // Send Api Device requests
         if (message.getCommand().equals("device") || message.getCommand().equals("devices")) {
             listener.sendApiMessage(message.getDeviceid());
-            return;
+            return true;
         }
 
         // Dont send commands if not supported by local mode
         if (!message.getLanSupported() && mode.equals("local")) {
             logger.warn("Cannot send command {} for device {}, Not supported by local mode", message.getCommand(),
                     message.getDeviceid());
-            return;
+            return false;
         }
 
         // If local supported see if we can send it
@@ -218,17 +602,25 @@ public class SonoffCommunicationManager implements Runnable, SonoffConnectionMan
             SonoffDeviceState state = listener.getState(message.getDeviceid());
             if (state != null) {
                 deviceKey = state.getDeviceKey();
-                ipaddress = state.getIpAddress().toString();
+                ipaddress = state.getState().getIpAddress().toString();
                 url = "http://" + ipaddress + ":8081/zeroconf/" + message.getCommand();
             }
 
             // Send LAN Message
-            if (!ipaddress.equals("")) {
-                logger.debug("Sending message via LAN");
-                listener.sendLanMessage(url, new SonoffCommandMessageEncryptionUtilities().encrypt(
-                        gson.toJson(message.getParams()), deviceKey, message.getDeviceid(), message.getSequence()));
+            if (ipaddress.equals("")) {
+                logger.debug("Cannot send command {} for device {} via LAN as its ip address is not known",
+                        message.getCommand(), message.getDeviceid());
+                return false;
             }
-            return;
+            logger.debug("Sending message via LAN");
+            try {
+                listener.sendLanMessage(url, lanEncoder.encode(message, deviceKey));
+            } catch (IOException | GeneralSecurityException e) {
+                logger.warn("Unable to encrypt {} for device {}: {}", message.getCommand(), message.getDeviceid(),
+                        e.getMessage());
+                return false;
+            }
+            return true;
         }
 
         // Send Websocket Message
@@ -238,18 +630,20 @@ public class SonoffCommunicationManager implements Runnable, SonoffConnectionMan
             WebsocketRequest request = new WebsocketRequest(message.getSequence(), apiKey, message.getDeviceid(),
                     gson.fromJson(params, JsonObject.class));
             listener.sendWebsocketMessage(gson.toJson(request));
-            return;
+            return true;
         }
 
-        // Log if we cant send
+        // Log if we cant send, the message is retried in case a connection comes back
         logger.error("Cannot send command {}, all connections are offline for deviceid {}", message.getCommand(),
                 message.getDeviceid());
+        return true;
     }
 
     /**
-     * Processes and forwards incoming states to the appropriate device handler
+     * Processes and forwards incoming states to the appropriate device handler. Updates for one device are applied one
+     * at a time in the order they arrive, updates for different devices can run at the same time.
      */
-    private synchronized void processState(JsonObject device, Boolean encrypted) {
+    private void processState(JsonObject device) {
         String deviceid = device.get("deviceid").getAsString();
         SonoffDeviceState state = listener.getState(deviceid);
         if (state == null) {
@@ -257,22 +651,37 @@ public class SonoffCommunicationManager implements Runnable, SonoffConnectionMan
             return;
         }
 
-        // LAN messages need to be decrypted first
-        if (encrypted) {
-            logger.trace("Decrypting LAN message for {}", deviceid);
-            String ipAddress = device.get("localAddress") != null ? device.get("localAddress").getAsString() : "";
-            JsonObject params = gson.fromJson(
-                    new SonoffCommandMessageEncryptionUtilities().decrypt(device, state.getDeviceKey()),
-                    JsonObject.class);
-            device.add("params", params);
-            if (ipAddress != "") {
-                device.addProperty("ipaddress", ipAddress);
+        synchronized (stateLock(deviceid)) {
+            state.updateState(device);
+            logger.debug("Updated state for {}, with data {}", deviceid, device);
+            forwardState(deviceid, state.publish());
+        }
+        listener.updateCache(device);
+    }
+
+    // Reads the params of a websocket or LAN update straight into the state of the device, the params that were applied
+    // are cached as the json tree path does. A LAN update also brings the address the device was heard from.
+    private void processState(String deviceid, @Nullable String ipAddress, JsonReader params) throws IOException {
+        SonoffDeviceState state = listener.getState(deviceid);
+        if (state == null) {
+            logger.error("The device {} doesnt exist, unable to set state", deviceid);
+            params.skipValue();
+            return;
+        }
+
+        JsonObject received = new JsonObject();
+        synchronized (stateLock(deviceid)) {
+            state.updateState(params, received);
+            if (ipAddress != null) {
+                state.updateIpAddress(ipAddress);
             }
-            logger.trace("LAN message for {} is {}", deviceid, gson.toJson(device));
+            logger.debug("Updated state for {} from streamed update", deviceid);
+            forwardState(deviceid, state.publish());
         }
+        listener.updateCache(device(deviceid, received));
+    }
 
-        state.updateState(device);
-        logger.debug("Updated state for {}, with data {}", deviceid, gson.toJson(device));
+    private void forwardState(String deviceid, SonoffDeviceState state) {
         SonoffDeviceListener deviceListener = listener.getListener(deviceid);
         if (deviceListener != null) {
             deviceListener.updateDevice(state);
@@ -282,79 +691,130 @@ public class SonoffCommunicationManager implements Runnable, SonoffConnectionMan
         }
     }
 
+    // Devices share a fixed set of locks so there is nothing to clean up when they are removed
+    private Object stateLock(String deviceid) {
+        return stateLocks[(deviceid.hashCode() & 0x7fffffff) % STATE_LOCKS];
+    }
+
     @Override
     public void websocketMessage(String message) {
         String messageType = "";
         String messageAction = "";
         String messageErrorCode = "";
         String messageError = "";
-
-        JsonObject response = gson.fromJson(message, JsonObject.class);
-        if (response != null) {
-            JsonElement action = response.get("action"); // .getAsString();
-            JsonElement seq = response.get("sequence"); // .getAsString();
-            JsonElement errorCode = response.get("error"); // .getAsInt();
-            if (response.get("reason") != null) {
-                messageError = response.get("reason") != null ? response.get("reason").getAsString() : "No reason";
-            }
-            if (seq != null) {
-                Long sequence = Long.parseLong(seq.getAsString());
-                latchMap.get(sequence);
-                String type = messageTypes.get(sequence);
-                messageType = type != null ? type : messageType;
-                messageTypes.remove(sequence);
-                okMessage(sequence);
-            }
-            if (action != null) {
-                messageAction = action.getAsString();
-            }
-            if (errorCode != null) {
-                messageErrorCode = errorCode.getAsString();
-            }
-
-            // Process any state messages
-            if (messageAction.equals("update") || messageAction.equals("sysmsg")) {
-                JsonObject device = gson.fromJson(response, JsonObject.class);
-                if (device != null) {
-                    processState(device, false);
+        String deviceid = null;
+        String seq = null;
+        boolean content = false;
+        boolean streamed = false;
+        JsonObject params = null;
+        JsonObject config = null;
+
+        // Single pass over the frame, update params for a known device are applied as they are read
+        try (JsonReader reader = new JsonReader(new StringReader(message))) {
+            reader.setLenient(true);
+            if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                content = true;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (reader.peek() == JsonToken.NULL) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    switch (name) {
+                        case "action":
+                            messageAction = reader.nextString();
+                            break;
+                        case "deviceid":
+                            deviceid = reader.nextString();
+                            break;
+                        case "sequence":
+                            seq = reader.nextString();
+                            break;
+                        case "error":
+                            messageErrorCode = reader.nextString();
+                            break;
+                        case "reason":
+                            messageError = reader.nextString();
+                            break;
+                        case "params":
+                            if (deviceid != null && (messageAction.equals("update") || messageAction.equals("sysmsg"))
+                                    && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                                processState(deviceid, null, reader);
+                                streamed = true;
+                            } else {
+                                JsonElement element = JsonParser.parseReader(reader);
+                                params = element.isJsonObject() ? element.getAsJsonObject() : null;
+                            }
+                            break;
+                        case "config":
+                            JsonElement element = JsonParser.parseReader(reader);
+                            config = element.isJsonObject() ? element.getAsJsonObject() : null;
+                            break;
+                        default:
+                            reader.skipValue();
+                    }
                 }
-                return;
+                reader.endObject();
             }
+        } catch (IOException | IllegalStateException | NumberFormatException | JsonParseException e) {
+            logger.debug("Unable to parse websocket message {}: {}", message, e.getMessage());
+            return;
+        }
 
-            // Process Other messages
-            if (seq != null) {
+        if (!content) {
+            logger.error("Websocket message didnt have any content");
+            return;
+        }
 
-                // Process streaming data activation
-                if (messageType.equals("uiActive")) {
-                    if (!messageErrorCode.equals("0")) {
-                        JsonElement deviceid = response.get("deviceid");
-                        String id = deviceid != null ? deviceid.getAsString() : "unknown";
-                        logger.trace("Streaming Data Activation Error {} - {} ,For Device:{}", messageErrorCode,
-                                messageError, id);
-                    }
+        if (seq != null) {
+            SonoffCommandMessage answered = okMessage(Long.parseLong(seq));
+            messageType = answered != null ? answered.getCommand() : messageType;
+        }
 
-                    return;
-                }
+        // Process any state messages
+        if (messageAction.equals("update") || messageAction.equals("sysmsg")) {
+            // Params arrived before the deviceid so they could not be streamed
+            if (!streamed && deviceid != null && params != null) {
+                processState(device(deviceid, params));
+            }
+            return;
+        }
 
-                // Consumption message
-                if (messageType.equals("consumption")) {
-                    JsonObject device = gson.fromJson(response, JsonObject.class);
-                    if (device != null) {
-                        JsonObject params = device.getAsJsonObject("config");
-                        device.add("params", params);
-                        processState(device, false);
-                    }
-                    return;
+        // Process Other messages
+        if (seq != null) {
+
+            // Process streaming data activation
+            if (messageType.equals("uiActive")) {
+                if (!messageErrorCode.equals("0")) {
+                    String id = deviceid != null ? deviceid : "unknown";
+                    logger.trace("Streaming Data Activation Error {} - {} ,For Device:{}", messageErrorCode,
+                            messageError, id);
                 }
 
-                // All other message (may need this for new device payloads)
-                logger.trace("Websocket processed {} type message with payload {}", messageType, message);
+                return;
             }
-        } else {
-            logger.error("Websocket message didnt have any content");
+
+            // Consumption message
+            if (messageType.equals("consumption")) {
+                if (deviceid != null && config != null) {
+                    processState(device(deviceid, config));
+                }
+                return;
+            }
+
+            // All other message (may need this for new device payloads)
+            logger.trace("Websocket processed {} type message with payload {}", messageType, message);
         }
     }
 
+    private JsonObject device(String deviceid, JsonObject params) {
+        JsonObject device = new JsonObject();
+        device.addProperty("deviceid", deviceid);
+        device.add("params", params);
+        return device;
+    }
+
     @Override
     public void apiMessage(JsonObject thingResponse) {
         JsonObject data = thingResponse.get("data").getAsJsonObject();
@@ -362,7 +822,7 @@ public class SonoffCommunicationManager implements Runnable, SonoffConnectionMan
         for (int i = 0; i < thingList.size(); i++) {
             JsonObject thing = thingList.get(i).getAsJsonObject();
             JsonObject device = thing.get("itemData").getAsJsonObject();
-            processState(device, false);
+            processState(device);
         }
     }
 
@@ -371,7 +831,6 @@ public class SonoffCommunicationManager implements Runnable, SonoffConnectionMan
         LanResponse response = gson.fromJson(message, LanResponse.class);
         if (response != null) {
             okMessage(Long.parseLong(response.getSequence()));
-            messageTypes.remove(Long.parseLong(response.getSequence()));
         } else {
             logger.error("LAN response returned null for message: {}", message);
         }
@@ -397,18 +856,68 @@ public class SonoffCommunicationManager implements Runnable, SonoffConnectionMan
             ServiceInfo eventInfo = event.getInfo();
             String localAddress = eventInfo.getInet4Addresses()[0].getHostAddress();
             logger.trace("Lan event received from {} with payload {}", localAddress, eventInfo);
-            JsonObject device = new JsonObject();
-            Enumeration<String> info = eventInfo.getPropertyNames();
-            while (info.hasMoreElements()) {
-                final @Nullable String name = info.nextElement();
-                String value = eventInfo.getPropertyString(name);
-                device.addProperty(name.equals("id") ? "deviceid" : name, value);
+            localAddress = localAddress.equals("null") ? "" : localAddress;
+            String deviceid = eventInfo.getPropertyString("id");
+            if (deviceid == null) {
+                return;
+            }
+            SonoffDeviceState state = listener.getState(deviceid);
+            if (state == null) {
+                logger.error("The device {} doesnt exist, unable to set state", deviceid);
+                return;
+            }
+            // Drop repeats of the last frame before doing any work on them, frames from devices that are not known yet
+            // are not recorded so their repeat is applied once the device is
+            String iv = eventInfo.getPropertyString("iv");
+            if (!lanFrames.accept(deviceid, eventInfo.getPropertyString("seq"), iv, localAddress)) {
+                logger.trace("Dropped repeated LAN frame for {}, {} of {} frames dropped", deviceid,
+                        lanFrames.getDropped(), lanFrames.getReceived());
+                return;
+            }
+
+            List<String> fragments = new ArrayList<>(4);
+            for (int i = 1; i <= 4; i++) {
+                String fragment = eventInfo.getPropertyString("data" + i);
+                if (fragment != null) {
+                    fragments.add(fragment);
+                }
+            }
+
+            // Decrypt and stream the params straight from the plaintext bytes into the state
+            if (iv == null) {
+                logger.debug("LAN message for {} has no iv, unable to decrypt it", deviceid);
+                return;
+            }
+            logger.trace("Decrypting LAN message for {}", deviceid);
+            ByteBuffer plaintext;
+            try {
+                plaintext = encryption.decrypt(fragments, iv, deviceid, state.getDeviceKey());
+            } catch (GeneralSecurityException | RuntimeException e) {
+                logger.debug("Unable to decrypt LAN message for {}: {}", deviceid, e.getMessage());
+                lanFrames.reset(deviceid);
+                return;
+            }
+            try (JsonReader reader = new JsonReader(new InputStreamReader(
+                    new ByteArrayInputStream(plaintext.array(), plaintext.position(), plaintext.remaining()),
+                    StandardCharsets.UTF_8))) {
+                reader.setLenient(true);
+                if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    processState(deviceid, localAddress.isEmpty() ? null : localAddress, reader);
+                }
+            } catch (IOException | IllegalStateException | NumberFormatException | JsonParseException e) {
+                logger.debug("Unable to parse LAN message for {}: {}", deviceid, e.getMessage());
+                lanFrames.reset(deviceid);
             }
-            device.addProperty("localAddress", localAddress.equals("null") ? "" : localAddress);
-            processState(device, true);
         }
     }
 
+    /**
+     * @return a summary of the mDNS frames received and how many were dropped as repeats
+     */
+    public String getLanFrameStats() {
+        return lanFrames.getReceived() + " LAN frames received, " + lanFrames.getDropped() + " repeats dropped";
+    }
+
     @Override
     public void setApiKey(String apiKey) {
         this.apiKey = apiKey;
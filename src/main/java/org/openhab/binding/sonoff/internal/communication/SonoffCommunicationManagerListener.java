@@ -12,11 +12,16 @@
  */
 package org.openhab.binding.sonoff.internal.communication;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
 import org.openhab.binding.sonoff.internal.handler.SonoffDeviceListener;
 import org.openhab.binding.sonoff.internal.handler.SonoffDeviceState;
 
+import com.google.gson.JsonObject;
+
 /**
  * The {@link SonoffRawMessageListener} passes all received messages from connections to be converted
  *
@@ -29,14 +34,19 @@ public interface SonoffCommunicationManagerListener {
     @Nullable
     SonoffDeviceState getState(String deviceid);
 
+    // Records a state update to be written to the device cache
+    void updateCache(JsonObject device);
+
     // Device Operations
     @Nullable
     SonoffDeviceListener getListener(String deviceid);
 
     // Message Operations
-    void sendLanMessage(String url, String payload);
+    void sendLanMessage(String url, ByteBuffer payload);
 
     void sendApiMessage(String deviceid);
 
+    void sendApiMessage(List<String> deviceids);
+
     void sendWebsocketMessage(String params);
 }
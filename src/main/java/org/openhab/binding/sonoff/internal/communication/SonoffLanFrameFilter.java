@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.sonoff.internal.communication;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link SonoffLanFrameFilter} drops mDNS frames that have already been seen. jmDNS resolves the same announcement
+ * once for every interface it listens on and again whenever its cache is refreshed, so only the first frame with a
+ * given seq and iv from a device is let through. The device address is part of the check so a device that moves keeps
+ * its address up to date. Safe to call from several jmDNS threads at once.
+ *
+ * @author David Murton - Initial contribution
+ */
+@NonNullByDefault
+public class SonoffLanFrameFilter {
+
+    // Last frame let through for each device
+    private final Map<String, String> frames = new ConcurrentHashMap<>();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @return false if the frame is a repeat of the last one from the device
+     */
+    public boolean accept(String deviceid, @Nullable String seq, @Nullable String iv, String address) {
+        received.incrementAndGet();
+        String frame = seq + ":" + iv + "@" + address;
+        if (frame.equals(frames.put(deviceid, frame))) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Forget the last frame of a device so the next one is let through even if it repeats
+     */
+    public void reset(String deviceid) {
+        frames.remove(deviceid);
+    }
+
+    public void clear() {
+        frames.clear();
+    }
+
+    public long getReceived() {
+        return received.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+}
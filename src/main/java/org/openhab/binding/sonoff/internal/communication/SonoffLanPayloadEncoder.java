@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.sonoff.internal.communication;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import com.google.gson.Gson;
+
+/**
+ * The {@link SonoffLanPayloadEncoder} builds the encrypted body of a LAN command. The params are written as json into
+ * a reusable buffer, encrypted, and the envelope is written straight into a single byte array of the exact size needed
+ * so no intermediate strings are created. It is not thread safe, the dispatcher is the only caller.
+ *
+ * @author David Murton - Initial contribution
+ */
+@NonNullByDefault
+public class SonoffLanPayloadEncoder {
+
+    private static final byte[] SEQUENCE = ascii("{\"sequence\":\"");
+    private static final byte[] DEVICEID = ascii("\",\"deviceid\":\"");
+    private static final byte[] IV = ascii("\",\"selfApikey\":\"123\",\"iv\":\"");
+    private static final byte[] DATA = ascii("\",\"encrypt\":true,\"data\":\"");
+    private static final byte[] END = ascii("\"}");
+    private static final byte[] BASE64 = ascii("ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/");
+
+    private final Gson gson;
+    private final SonoffCommandMessageEncryptionUtilities encryption;
+    private final ParamsBuffer params = new ParamsBuffer();
+    private final Writer writer = new OutputStreamWriter(params, StandardCharsets.UTF_8);
+    private final byte[] iv = new byte[16];
+
+    public SonoffLanPayloadEncoder(Gson gson, SonoffCommandMessageEncryptionUtilities encryption) {
+        this.gson = gson;
+        this.encryption = encryption;
+    }
+
+    public ByteBuffer encode(SonoffCommandMessage message, String deviceKey)
+            throws IOException, GeneralSecurityException {
+        params.reset();
+        gson.toJson(message.getParams(), writer);
+        writer.flush();
+        String deviceid = message.getDeviceid();
+        byte[] ciphertext = encryption.encrypt(params.buffer(), params.size(), deviceid, deviceKey, iv);
+
+        long sequence = message.getSequence().longValue();
+        int length = SEQUENCE.length + digits(sequence) + DEVICEID.length + deviceid.length() + IV.length
+                + base64Length(iv.length) + DATA.length + base64Length(ciphertext.length) + END.length;
+        byte[] payload = new byte[length];
+        int pos = put(SEQUENCE, payload, 0);
+        pos = putDigits(sequence, payload, pos);
+        pos = put(DEVICEID, payload, pos);
+        for (int i = 0; i < deviceid.length(); i++) {
+            payload[pos++] = (byte) deviceid.charAt(i);
+        }
+        pos = put(IV, payload, pos);
+        pos = putBase64(iv, iv.length, payload, pos);
+        pos = put(DATA, payload, pos);
+        pos = putBase64(ciphertext, ciphertext.length, payload, pos);
+        put(END, payload, pos);
+        return ByteBuffer.wrap(payload);
+    }
+
+    private static int put(byte[] src, byte[] dst, int pos) {
+        System.arraycopy(src, 0, dst, pos, src.length);
+        return pos + src.length;
+    }
+
+    private static int digits(long value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    private static int putDigits(long value, byte[] dst, int pos) {
+        int end = pos + digits(value);
+        for (int i = end - 1; i >= pos; i--) {
+            dst[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+
+    private static int base64Length(int length) {
+        return (length + 2) / 3 * 4;
+    }
+
+    private static int putBase64(byte[] src, int length, byte[] dst, int pos) {
+        int i = 0;
+        for (; i + 2 < length; i += 3) {
+            int bits = (src[i] & 0xff) << 16 | (src[i + 1] & 0xff) << 8 | (src[i + 2] & 0xff);
+            dst[pos++] = BASE64[bits >>> 18];
+            dst[pos++] = BASE64[(bits >>> 12) & 0x3f];
+            dst[pos++] = BASE64[(bits >>> 6) & 0x3f];
+            dst[pos++] = BASE64[bits & 0x3f];
+        }
+        int remaining = length - i;
+        if (remaining > 0) {
+            int bits = (src[i] & 0xff) << 16 | (remaining == 2 ? (src[i + 1] & 0xff) << 8 : 0);
+            dst[pos++] = BASE64[bits >>> 18];
+            dst[pos++] = BASE64[(bits >>> 12) & 0x3f];
+            dst[pos++] = remaining == 2 ? BASE64[(bits >>> 6) & 0x3f] : (byte) '=';
+            dst[pos++] = (byte) '=';
+        }
+        return pos;
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // Gives the cipher the written bytes without copying them
+    private static class ParamsBuffer extends ByteArrayOutputStream {
+
+        private ParamsBuffer() {
+            super(256);
+        }
+
+        private byte[] buffer() {
+            return buf;
+        }
+    }
+}
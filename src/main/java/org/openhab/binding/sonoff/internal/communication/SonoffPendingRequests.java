@@ -0,0 +1,180 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.sonoff.internal.communication;
+
+import java.util.Arrays;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link SonoffPendingRequests} is the table of messages that have been sent and are awaiting a response, keyed by
+ * their sequence. It uses open addressing on primitive long keys and holds at most {@code capacity} requests so it can
+ * never grow without bound. It is not thread safe, the {@link SonoffCommunicationManager} guards all access.
+ *
+ * @author David Murton - Initial contribution
+ */
+@NonNullByDefault
+public class SonoffPendingRequests {
+
+    // Sequences are never 0 so it marks a free slot
+    private static final long FREE = 0L;
+
+    private final int capacity;
+    private final int mask;
+    private final long[] keys;
+    private final @Nullable Request[] values;
+    private int size = 0;
+
+    public SonoffPendingRequests(int capacity) {
+        this.capacity = capacity;
+        // Keep the load factor at or below 0.5
+        int slots = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+        this.mask = slots - 1;
+        this.keys = new long[slots];
+        this.values = new Request[slots];
+    }
+
+    /**
+     * @return false if the table is full or the sequence is already pending
+     */
+    public boolean put(Request request) {
+        long sequence = request.getSequence();
+        if (sequence == FREE || size >= capacity) {
+            return false;
+        }
+        int slot = slot(sequence);
+        while (keys[slot] != FREE) {
+            if (keys[slot] == sequence) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = sequence;
+        values[slot] = request;
+        size++;
+        return true;
+    }
+
+    public @Nullable Request get(long sequence) {
+        int slot = find(sequence);
+        return slot < 0 ? null : values[slot];
+    }
+
+    public @Nullable Request remove(long sequence) {
+        int slot = find(sequence);
+        if (slot < 0) {
+            return null;
+        }
+        Request request = values[slot];
+        size--;
+        // Shift following entries of the probe sequence back so lookups never hit a gap
+        int free = slot;
+        int next = (free + 1) & mask;
+        while (keys[next] != FREE) {
+            int home = slot(keys[next]);
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                keys[free] = keys[next];
+                values[free] = values[next];
+                free = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[free] = FREE;
+        values[free] = null;
+        return request;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    private int find(long sequence) {
+        if (sequence == FREE) {
+            return -1;
+        }
+        int slot = slot(sequence);
+        while (keys[slot] != FREE) {
+            if (keys[slot] == sequence) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int slot(long sequence) {
+        long hash = sequence * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * A message awaiting a response along with its send attempts and the wheel tick it is next due on. While in flight
+     * the deadline is its timeout, after a timeout it is the end of the backoff before it is queued again.
+     */
+    public static class Request {
+
+        private final SonoffCommandMessage message;
+        private final long sequence;
+        private int attempts = 1;
+        private long deadline = 0;
+        private boolean inFlight = false;
+
+        public Request(SonoffCommandMessage message) {
+            this.message = message;
+            this.sequence = message.getSequence().longValue();
+        }
+
+        public SonoffCommandMessage getMessage() {
+            return message;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        public void addAttempt() {
+            attempts++;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+
+        public void setDeadline(long deadline) {
+            this.deadline = deadline;
+        }
+
+        public boolean isInFlight() {
+            return inFlight;
+        }
+
+        public void setInFlight(boolean inFlight) {
+            this.inFlight = inFlight;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.sonoff.internal.communication;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link SonoffTimeoutWheel} is a hashed timing wheel of sequences. Scheduling is constant time and nothing is
+ * ever cancelled, the owner checks whether a fired sequence is still pending with the same deadline and ignores it
+ * otherwise. Each bucket is emptied as the wheel passes it so stale entries are only held until their deadline. It is
+ * not thread safe, the {@link SonoffCommunicationManager} guards all access.
+ *
+ * @author David Murton - Initial contribution
+ */
+@NonNullByDefault
+public class SonoffTimeoutWheel {
+
+    @FunctionalInterface
+    public interface Expiry {
+        void expired(long sequence, long deadline);
+    }
+
+    private final long tickNanos;
+    private final int mask;
+    private final long[][] sequences;
+    private final long[][] deadlines;
+    private final int[] counts;
+    private final long start = System.nanoTime();
+    private long tick = 0;
+    private long[] expiredSequences = new long[16];
+    private long[] expiredDeadlines = new long[16];
+    private int size = 0;
+
+    public SonoffTimeoutWheel(int buckets, long tickMs) {
+        int slots = Integer.highestOneBit(Math.max(2, buckets) * 2 - 1);
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        this.mask = slots - 1;
+        this.sequences = new long[slots][4];
+        this.deadlines = new long[slots][4];
+        this.counts = new int[slots];
+    }
+
+    /**
+     * @return the tick a timeout of delayMs from now falls on, always at least one tick ahead
+     */
+    public long deadline(long delayMs) {
+        long delay = TimeUnit.MILLISECONDS.toNanos(delayMs);
+        return now() + Math.max(1, (delay + tickNanos - 1) / tickNanos);
+    }
+
+    public void schedule(long sequence, long deadline) {
+        if (size == 0) {
+            // Nothing was due so the wheel can skip straight to the current tick
+            tick = Math.max(tick, now());
+        }
+        int bucket = (int) (Math.max(deadline, tick + 1) & mask);
+        int count = counts[bucket];
+        if (count == sequences[bucket].length) {
+            sequences[bucket] = Arrays.copyOf(sequences[bucket], count * 2);
+            deadlines[bucket] = Arrays.copyOf(deadlines[bucket], count * 2);
+        }
+        sequences[bucket][count] = sequence;
+        deadlines[bucket][count] = deadline;
+        counts[bucket] = count + 1;
+        size++;
+    }
+
+    /**
+     * Moves the wheel up to the current tick and hands every sequence that is due to the expiry
+     */
+    public void advance(Expiry expiry) {
+        long now = now();
+        while (tick < now && size > 0) {
+            tick++;
+            int bucket = (int) (tick & mask);
+            int count = counts[bucket];
+            long[] bucketSequences = sequences[bucket];
+            long[] bucketDeadlines = deadlines[bucket];
+            int kept = 0;
+            int due = 0;
+            for (int i = 0; i < count; i++) {
+                if (bucketDeadlines[i] <= tick) {
+                    if (due == expiredSequences.length) {
+                        expiredSequences = Arrays.copyOf(expiredSequences, due * 2);
+                        expiredDeadlines = Arrays.copyOf(expiredDeadlines, due * 2);
+                    }
+                    expiredSequences[due] = bucketSequences[i];
+                    expiredDeadlines[due] = bucketDeadlines[i];
+                    due++;
+                } else {
+                    // Due on a later turn of the wheel
+                    bucketSequences[kept] = bucketSequences[i];
+                    bucketDeadlines[kept] = bucketDeadlines[i];
+                    kept++;
+                }
+            }
+            counts[bucket] = kept;
+            size -= due;
+            // Fired once the bucket is settled as the expiry may schedule again
+            for (int i = 0; i < due; i++) {
+                expiry.expired(expiredSequences[i], expiredDeadlines[i]);
+            }
+        }
+        if (size == 0) {
+            tick = Math.max(tick, now);
+        }
+    }
+
+    /**
+     * @return nanoseconds until the next tick, or -1 if nothing is scheduled
+     */
+    public long nanosToNextTick() {
+        if (size == 0) {
+            return -1;
+        }
+        long elapsed = System.nanoTime() - start;
+        return Math.max(1, tickNanos - (elapsed % tickNanos));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(counts, 0);
+        size = 0;
+        tick = now();
+    }
+
+    private long now() {
+        return (System.nanoTime() - start) / tickNanos;
+    }
+}
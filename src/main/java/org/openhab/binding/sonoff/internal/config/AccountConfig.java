@@ -27,10 +27,16 @@ public class AccountConfig {
     public String email = "";
     public String password = "";
     public String accessmode = "";
+    public Integer commandWindow = 1;
+    public Integer retryDelay = 500;
+    public Integer breakerThreshold = 5;
+    public Integer cacheInterval = 60;
 
     @Override
     public String toString() {
-        return "[email=" + email + ", password=" + getPasswordForPrinting() + ", accessmode=" + accessmode + "]";
+        return "[email=" + email + ", password=" + getPasswordForPrinting() + ", accessmode=" + accessmode
+                + ", commandWindow=" + commandWindow + ", retryDelay=" + retryDelay + ", breakerThreshold="
+                + breakerThreshold + ", cacheInterval=" + cacheInterval + "]";
     }
 
     private String getPasswordForPrinting() {
@@ -13,8 +13,10 @@
 package org.openhab.binding.sonoff.internal.connection;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
 
@@ -22,7 +24,6 @@ import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.client.api.ContentResponse;
-import org.eclipse.jetty.client.api.Response;
 import org.eclipse.jetty.client.api.Result;
 import org.eclipse.jetty.client.util.BufferingResponseListener;
 import org.eclipse.jetty.client.util.StringContentProvider;
@@ -39,6 +40,7 @@ import org.slf4j.LoggerFactory;
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 
 /**
  * The {@link SonoffApiConnection} class is the Http Api Connection to the Ewelink Servers and uses the shared
@@ -244,56 +246,27 @@ public class SonoffApiConnection {
         httpClient.newRequest(url).header("Authorization", "Bearer " + this.at)
                 .header("Content-Type", "application/json").header("X-CK-Appid", this.appId)
                 .header("X-CK-Nonce", SonoffCommandMessageUtilities.getNonce()).method("GET")
-                .send(new BufferingResponseListener(8 * 1024 * 1024) {
-                    @Override
-                    public void onComplete(@Nullable Result result) {
-                        if (!result.isFailed()) {
-                            byte[] responseContent = getContent();
-                            String response = new String(responseContent, StandardCharsets.UTF_8);
-                            logger.debug("Api Devices response:{}", response);
-                            JsonObject responseObject = gson.fromJson(response, JsonObject.class);
-                            if (responseObject != null) {
-                                Integer error = responseObject.get("error").getAsInt();
-                                if (!error.equals(0)) {
-                                    processError(error, responseObject.get("msg").getAsString());
-                                } else {
-                                    listener.apiMessage(responseObject);
-                                }
-                            }
-                        }
-                    }
-                });
+                .send(new ApiResponseListener("Api Devices"));
     }
 
-    public void getDevice(String deviceid) {
+    /**
+     * Requests the state of several devices in a single call, the response is passed on as one message
+     */
+    public void getDevices(List<String> deviceids) {
         ThingList request = new ThingList();
-        Things thing = new Things();
-        thing.setItemType(1);
-        thing.setId(deviceid);
-        request.getThings().add(thing);
+        for (String deviceid : deviceids) {
+            Things thing = new Things();
+            thing.setItemType(1);
+            thing.setId(deviceid);
+            request.getThings().add(thing);
+        }
         String url = this.baseUrl + "/v2/device/thing";
-        logger.debug("Api Get Device Request for id:{}", deviceid);
+        logger.debug("Api Get Device Request for ids:{}", deviceids);
         httpClient.newRequest(url).header("Content-Type", "application/json").header("X-CK-Appid", this.appId)
                 .header("X-CK-Nonce", SonoffCommandMessageUtilities.getNonce())
                 .header("Authorization", "Bearer " + this.at)
                 .content(new StringContentProvider(gson.toJson(request)), "application/json").method("POST")
-                .send(new Response.Listener.Adapter() {
-                    @Override
-                    public void onContent(@Nullable Response contentResponse, @Nullable ByteBuffer buffer) {
-                        String response = StandardCharsets.UTF_8.decode(buffer).toString();
-                        logger.debug("Api Device request for {} returned {}", deviceid, response);
-                        // ThingResponse response = gson.fromJson(string, ThingResponse.class);
-                        JsonObject responseObject = gson.fromJson(response, JsonObject.class);
-                        if (responseObject != null) {
-                            Integer error = responseObject.get("error").getAsInt();
-                            if (!error.equals(0)) {
-                                processError(error, responseObject.get("msg").getAsString());
-                            } else {
-                                listener.apiMessage(responseObject);
-                            }
-                        }
-                    }
-                });
+                .send(new ApiResponseListener("Api Device request for " + deviceids));
     }
 
     private void processError(Integer code, String message) {
@@ -312,4 +285,47 @@ public class SonoffApiConnection {
                 logError);
         listener.apiConnected(false, "", "");
     }
+
+    /**
+     * Collects the whole response body, up to 8MB, and parses it once complete. The json is read straight from the
+     * buffered bytes rather than being decoded to a string first.
+     */
+    private class ApiResponseListener extends BufferingResponseListener {
+
+        private final String description;
+
+        public ApiResponseListener(String description) {
+            super(8 * 1024 * 1024);
+            this.description = description;
+        }
+
+        @Override
+        public void onComplete(@Nullable Result result) {
+            if (result == null) {
+                return;
+            }
+            if (result.isFailed()) {
+                logger.debug("{} failed: {}", description, result.getFailure().getMessage());
+                return;
+            }
+            if (logger.isTraceEnabled()) {
+                logger.trace("{} returned {}", description, getContentAsString(StandardCharsets.UTF_8));
+            }
+            JsonObject responseObject;
+            try (Reader reader = new InputStreamReader(getContentAsInputStream(), StandardCharsets.UTF_8)) {
+                responseObject = gson.fromJson(reader, JsonObject.class);
+            } catch (IOException | JsonParseException e) {
+                logger.debug("{} returned an invalid response: {}", description, e.getMessage());
+                return;
+            }
+            if (responseObject != null) {
+                Integer error = responseObject.get("error").getAsInt();
+                if (!error.equals(0)) {
+                    processError(error, responseObject.get("msg").getAsString());
+                } else {
+                    listener.apiMessage(responseObject);
+                }
+            }
+        }
+    }
 }
@@ -12,6 +12,10 @@
  */
 package org.openhab.binding.sonoff.internal.connection;
 
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
 import javax.jmdns.ServiceEvent;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
@@ -43,11 +47,11 @@ public class SonoffConnectionManager
     private Boolean lanConnected = false;
     private String mode = "";
 
-    public SonoffConnectionManager(WebSocketClient webSocketClient, HttpClient httpClient,
+    public SonoffConnectionManager(WebSocketClient webSocketClient, HttpClient httpClient, HttpClient lanHttpClient,
             SonoffConnectionManagerListener listener) {
         this.listener = listener;
         this.api = new SonoffApiConnection(this, httpClient);
-        this.lan = new SonoffLanConnection(this, httpClient);
+        this.lan = new SonoffLanConnection(this, lanHttpClient);
         this.webSocket = new SonoffWebSocketConnection(this, webSocketClient);
     }
 
@@ -196,7 +200,7 @@ public class SonoffConnectionManager
     /**
      * Send LAN messages coming back from the message provider
      */
-    public void sendLanMessage(String url, String payload) {
+    public void sendLanMessage(String url, ByteBuffer payload) {
         lan.sendMessage(url, payload);
     }
 
@@ -208,13 +212,24 @@ public class SonoffConnectionManager
             logger.debug("Unable to request cloud update as the connection is offline");
         } else {
             if (deviceid != "") {
-                api.getDevice(deviceid);
+                api.getDevices(Collections.singletonList(deviceid));
             } else {
                 api.getDevices();
             }
         }
     }
 
+    /**
+     * Send a batch of Api device requests as a single call
+     */
+    public void sendApiMessage(List<String> deviceids) {
+        if (!webSocketLoggedIn) {
+            logger.debug("Unable to request cloud update as the connection is offline");
+        } else {
+            api.getDevices(deviceids);
+        }
+    }
+
     /**
      * Send Websocket messages coming back from the message provider
      */
@@ -31,14 +31,15 @@ import javax.jmdns.JmDNS;
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.jetty.client.HttpClient;
-import org.eclipse.jetty.client.api.Response;
-import org.eclipse.jetty.client.util.StringContentProvider;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
+import org.eclipse.jetty.client.util.ByteBufferContentProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * The {@link SonoffLanConnection} class is the Http/mDNS Connection to local ewelink enabled
- * devices and uses the shared httpClient
+ * devices and uses the binding's LAN httpClient, which keeps a small pool of connections open to each device
  *
  * @author David Murton - Initial contribution
  */
@@ -49,6 +50,11 @@ public class SonoffLanConnection {
     private final HttpClient httpClient;
     private final SonoffLanConnectionListener listener;
     private static final String SERVICE = "_ewelink._tcp.local.";
+    // Time allowed for the device to answer once the request is sent, and for the whole exchange
+    private static final long READ_TIMEOUT_MS = 3000;
+    private static final long TOTAL_TIMEOUT_MS = 10000;
+    // Acks are a few dozen bytes, anything much larger is not a valid response
+    private static final int MAX_RESPONSE_BYTES = 16 * 1024;
 
     private final Map<InetAddress, JmDNS> instances = new ConcurrentHashMap<>();
 
@@ -128,20 +134,27 @@ public class SonoffLanConnection {
         return addresses;
     }
 
-    public void sendMessage(String url, String payload) {
+    public void sendMessage(String url, ByteBuffer payload) {
         logger.debug("Sending LAN Update to {}", url);
         try {
             httpClient.newRequest(url).method("POST").header("accept", "application/json")
                     .header("Content-Type", "application/json; utf-8")
-                    .content(new StringContentProvider(payload), "application/json").timeout(10, TimeUnit.SECONDS)
-                    .send(new Response.Listener.Adapter() {
+                    .content(new ByteBufferContentProvider(payload), "application/json")
+                    .idleTimeout(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                    .timeout(TOTAL_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                    .send(new BufferingResponseListener(MAX_RESPONSE_BYTES) {
                         @Override
-                        public void onContent(@Nullable Response response, @Nullable ByteBuffer buffer) {
-                            if (buffer != null) {
-                                String content = StandardCharsets.UTF_8.decode(buffer).toString();
-                                logger.debug("Lan response received: {}", content);
-                                listener.lanResponse(content);
+                        public void onComplete(@Nullable Result result) {
+                            if (result == null) {
+                                return;
                             }
+                            if (result.isFailed()) {
+                                logger.debug("LAN update to {} failed: {}", url, result.getFailure().getMessage());
+                                return;
+                            }
+                            String content = getContentAsString(StandardCharsets.UTF_8);
+                            logger.debug("Lan response received: {}", content);
+                            listener.lanResponse(content);
                         }
                     });
         } catch (Exception e) {
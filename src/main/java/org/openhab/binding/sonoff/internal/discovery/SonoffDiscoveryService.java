@@ -12,10 +12,12 @@
  */
 package org.openhab.binding.sonoff.internal.discovery;
 
-import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
@@ -23,6 +25,7 @@ import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
 import org.openhab.binding.sonoff.internal.SonoffBindingConstants;
 import org.openhab.binding.sonoff.internal.SonoffCacheProvider;
+import org.openhab.binding.sonoff.internal.SonoffDeviceTypes;
 import org.openhab.binding.sonoff.internal.connection.SonoffApiConnection;
 import org.openhab.binding.sonoff.internal.connection.SonoffConnectionManager;
 import org.openhab.binding.sonoff.internal.handler.*;
@@ -60,6 +63,8 @@ public class SonoffDiscoveryService extends AbstractDiscoveryService implements
     private @Nullable SonoffAccountHandler account;
     private @Nullable ScheduledFuture<?> scanTask;
     private final Gson gson;
+    // Devices already reported as gone, their cache is kept so they would otherwise be reported on every scan
+    private final Set<String> reportedRemoved = ConcurrentHashMap.newKeySet();
 
     public SonoffDiscoveryService() {
         super(SonoffBindingConstants.DISCOVERABLE_THING_TYPE_UIDS, DISCOVER_TIMEOUT_SECONDS, false);
@@ -100,10 +105,10 @@ public class SonoffDiscoveryService extends AbstractDiscoveryService implements
         }
     }
 
-    // Used for discovery
-    public List<JsonObject> createCache(List<Thing> things) {
+    // Used for discovery, returns the account's devices by deviceid
+    public Map<String, JsonObject> createCache(List<Thing> things) {
         SonoffCacheProvider cacheProvider = new SonoffCacheProvider();
-        List<JsonObject> devices = new ArrayList<JsonObject>();
+        Map<String, JsonObject> devices = new LinkedHashMap<>();
 
         final SonoffAccountHandler account = this.account;
         if (account != null) {
@@ -124,61 +129,99 @@ public class SonoffDiscoveryService extends AbstractDiscoveryService implements
             if (main != null) {
                 JsonObject data = main.get("data").getAsJsonObject();
                 JsonArray thingList = data.get("thingList").getAsJsonArray();
-                for (int i = 0; i < thingList.size(); i++) {
+                for (JsonElement item : thingList) {
                     // Items (type 1)
-                    JsonElement type = thingList.get(i).getAsJsonObject().get("itemType");
-                    if (type != null) {
-                        if (type.getAsInt() == 1) {
-                            JsonObject device = thingList.get(i).getAsJsonObject().getAsJsonObject("itemData");
-                            String deviceid = device.get("deviceid").getAsString();
-                            logger.debug("Processing device {}", deviceid);
-                            if (!cacheProvider.checkFile(deviceid)) {
-                                cacheProvider.newFile(deviceid, gson.toJson(device));
-                                account.addState(deviceid);
-                                logger.debug("Cache file and state created for device {} as it was missing", deviceid);
-
-                                for (int m = 0; m < things.size(); m++) {
-                                    String config = things.get(m).getConfiguration().get("deviceid").toString();
-                                    if (config.equals(deviceid)) {
-                                        logger.info("Re-Initializing {} as a thing was already present", deviceid);
-                                        Thing thing = things.get(m);
-                                        thing.getHandler().thingUpdated(thing);
-                                    }
-                                }
-
-                            }
-                            devices.add(device);
-                        }
+                    JsonElement type = item.getAsJsonObject().get("itemType");
+                    if (type != null && type.getAsInt() == 1) {
+                        JsonObject device = item.getAsJsonObject().getAsJsonObject("itemData");
+                        devices.put(device.get("deviceid").getAsString(), device);
                     }
                 }
+                Set<String> cached = cacheProvider.getDeviceids();
+                updateDevices(account, cacheProvider, devices, cached, things);
+                cached.removeAll(devices.keySet());
+                removeDevices(account, cacheProvider, cached);
             }
         }
         return devices;
     }
 
+    // Only devices that are new or have changed since they were cached are written out and have their things
+    // re-initialized
+    private void updateDevices(SonoffAccountHandler account, SonoffCacheProvider cacheProvider,
+            Map<String, JsonObject> devices, Set<String> cached, List<Thing> things) {
+        Map<String, Thing> thingsById = new HashMap<>();
+        for (Thing thing : things) {
+            Object deviceid = thing.getConfiguration().get("deviceid");
+            if (deviceid != null) {
+                thingsById.put(deviceid.toString(), thing);
+            }
+        }
+        int changed = 0;
+        for (Map.Entry<String, JsonObject> device : devices.entrySet()) {
+            String deviceid = device.getKey();
+            if (!cacheProvider.refreshDevice(deviceid, device.getValue())) {
+                continue;
+            }
+            changed++;
+            if (cached.contains(deviceid)) {
+                account.refreshState(deviceid);
+                logger.debug("Cache and state updated for device {} as it has changed", deviceid);
+            } else {
+                account.addState(deviceid);
+                logger.debug("Cache file and state created for device {} as it was missing", deviceid);
+            }
+            Thing thing = thingsById.get(deviceid);
+            ThingHandler handler = thing != null ? thing.getHandler() : null;
+            if (thing != null && handler != null) {
+                logger.info("Re-Initializing {} as a thing was already present", deviceid);
+                handler.thingUpdated(thing);
+            }
+        }
+        logger.debug("Found {} devices, {} new or changed", devices.size(), changed);
+    }
+
+    // Devices no longer on the account are dropped from the inbox, their cache is kept for any thing still using it
+    private void removeDevices(SonoffAccountHandler account, SonoffCacheProvider cacheProvider, Set<String> removed) {
+        // Devices back on the account are reported again should they go
+        reportedRemoved.retainAll(removed);
+        for (String deviceid : removed) {
+            if (!reportedRemoved.add(deviceid)) {
+                continue;
+            }
+            JsonObject device = cacheProvider.getDevice(deviceid);
+            JsonObject extra = device != null ? device.getAsJsonObject("extra") : null;
+            ThingTypeUID thingTypeUid = extra != null && extra.has("uiid")
+                    ? SonoffDeviceTypes.getDeviceThingType(extra.get("uiid").getAsInt())
+                    : null;
+            logger.info("Device {} is no longer on the account", deviceid);
+            if (thingTypeUid != null) {
+                thingRemoved(new ThingUID(thingTypeUid, account.getThing().getUID(), deviceid));
+            }
+        }
+    }
+
     private void discover() {
         logger.debug("Sonoff - Start Discovery");
         // Get the master Bridge and create the cache
         final SonoffAccountHandler account = this.account;
         if (account != null) {
-            new ArrayList<JsonObject>();
             ThingUID bridgeUID = account.getThing().getUID();
             int i = 0;
 
             // Get a list of child things so we can add sub devices and reinitialise if required
             List<Thing> things = account.getThing().getThings();
 
-            List<JsonObject> devices = createCache(things);
+            Map<String, JsonObject> devices = createCache(things);
 
             // Create Top Level Devices
-            for (i = 0; i < devices.size(); i++) {
-                JsonObject device = devices.get(i);
+            for (JsonObject device : devices.values()) {
                 String deviceid = device.get("deviceid").getAsString();
                 Integer uiid = device.get("extra").getAsJsonObject().get("uiid").getAsInt();
                 JsonObject params = device.getAsJsonObject("params");
 
                 logger.info("Discovered device {}", deviceid);
-                ThingTypeUID thingTypeUid = SonoffBindingConstants.createMap().get(uiid);
+                ThingTypeUID thingTypeUid = SonoffDeviceTypes.getDeviceThingType(uiid);
                 if (thingTypeUid != null) {
                     ThingUID deviceThing = new ThingUID(thingTypeUid, account.getThing().getUID(), deviceid);
                     Map<String, Object> properties = new HashMap<>();
@@ -201,10 +244,8 @@ public class SonoffDiscoveryService extends AbstractDiscoveryService implements
                             DiscoveryResultBuilder.create(deviceThing).withLabel(label).withProperties(properties)
                                     .withRepresentationProperty("deviceid").withBridge(bridgeUID).build());
                 } else {
-                    Boolean subDevice = false;
-                    subDevice = SonoffBindingConstants.createZigbeeMap().get(uiid) != null ? true : subDevice;
-                    subDevice = SonoffBindingConstants.createSensorMap().get(uiid) != null ? true : subDevice;
-                    if (!subDevice) {
+                    // Zigbee sub devices are discovered through their bridge
+                    if (SonoffDeviceTypes.getZigbeeThingType(uiid) == null) {
                         logger.error(
                                 "Unable to add {} as its not supported, please forward the cache file to the developer",
                                 deviceid);
@@ -227,7 +268,7 @@ public class SonoffDiscoveryService extends AbstractDiscoveryService implements
                             for (j = 0; j < subDevices.size(); j++) {
                                 JsonObject subDevice = subDevices.get(j).getAsJsonObject();
                                 Integer type = Integer.parseInt(subDevice.get("remote_type").getAsString());
-                                ThingTypeUID thingTypeUid = SonoffBindingConstants.createSensorMap().get(type);
+                                ThingTypeUID thingTypeUid = SonoffDeviceTypes.getRfThingType(type);
                                 if (thingTypeUid != null) {
                                     ThingUID rfThing = new ThingUID(thingTypeUid, rfBridge.getThing().getUID(), j + "");
                                     Map<String, Object> properties = new HashMap<>();
@@ -255,33 +296,29 @@ public class SonoffDiscoveryService extends AbstractDiscoveryService implements
                                 logger.debug("Discovering zigbee device {}", subDeviceid);
                                 Integer subDeviceuiid = subDevice.get("uiid").getAsInt();
                                 // Lookup our device in the main list
-                                for (int k = 0; k < devices.size(); k++) {
-                                    if (devices.get(k).getAsJsonObject().get("deviceid").getAsString()
-                                            .equals(subDeviceid)) {
-                                        subDevice = devices.get(k);
-                                        JsonObject subParams = subDevice.get("params").getAsJsonObject();
-                                        ThingTypeUID thingTypeUid = SonoffBindingConstants.createZigbeeMap()
-                                                .get(subDeviceuiid);
-                                        if (thingTypeUid != null) {
-                                            ThingUID zigbeeThing = new ThingUID(thingTypeUid,
-                                                    zigbeeBridge.getThing().getUID(), subDeviceid);
-                                            Map<String, Object> properties = new HashMap<>();
-                                            properties.clear();
-                                            properties.put("deviceid", subDeviceid);
-                                            properties.put("Name", subDevice.get("name").getAsString());
-                                            properties.put("Brand", subDevice.get("brandName").getAsString());
-                                            properties.put("Model", subDevice.get("productModel").getAsString());
-                                            if (subParams.get("fwVersion") != null) {
-                                                properties.put("FW Version", subParams.get("fwVersion").getAsString());
-                                            }
-                                            properties.put("Device Key", subDevice.get("devicekey").getAsString());
-                                            properties.put("UIID", subDeviceuiid);
-                                            properties.put("API Key", subDevice.get("apikey").getAsString());
-                                            String label = subDevice.get("name").getAsString();
-                                            thingDiscovered(DiscoveryResultBuilder.create(zigbeeThing).withLabel(label)
-                                                    .withProperties(properties).withRepresentationProperty("deviceid")
-                                                    .withBridge(zigbeeBridge.getThing().getUID()).build());
+                                JsonObject device = devices.get(subDeviceid);
+                                if (device != null) {
+                                    subDevice = device;
+                                    JsonObject subParams = subDevice.get("params").getAsJsonObject();
+                                    ThingTypeUID thingTypeUid = SonoffDeviceTypes.getZigbeeThingType(subDeviceuiid);
+                                    if (thingTypeUid != null) {
+                                        ThingUID zigbeeThing = new ThingUID(thingTypeUid,
+                                                zigbeeBridge.getThing().getUID(), subDeviceid);
+                                        Map<String, Object> properties = new HashMap<>();
+                                        properties.put("deviceid", subDeviceid);
+                                        properties.put("Name", subDevice.get("name").getAsString());
+                                        properties.put("Brand", subDevice.get("brandName").getAsString());
+                                        properties.put("Model", subDevice.get("productModel").getAsString());
+                                        if (subParams.get("fwVersion") != null) {
+                                            properties.put("FW Version", subParams.get("fwVersion").getAsString());
                                         }
+                                        properties.put("Device Key", subDevice.get("devicekey").getAsString());
+                                        properties.put("UIID", subDeviceuiid);
+                                        properties.put("API Key", subDevice.get("apikey").getAsString());
+                                        String label = subDevice.get("name").getAsString();
+                                        thingDiscovered(DiscoveryResultBuilder.create(zigbeeThing).withLabel(label)
+                                                .withProperties(properties).withRepresentationProperty("deviceid")
+                                                .withBridge(zigbeeBridge.getThing().getUID()).build());
                                     }
                                 }
                             }
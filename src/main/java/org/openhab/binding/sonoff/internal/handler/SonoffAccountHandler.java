@@ -12,10 +12,13 @@
  */
 package org.openhab.binding.sonoff.internal.handler;
 
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
@@ -26,6 +29,8 @@ import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.websocket.client.WebSocketClient;
 import org.openhab.binding.sonoff.internal.SonoffCacheProvider;
+import org.openhab.binding.sonoff.internal.SonoffChannelSnapshots;
+import org.openhab.binding.sonoff.internal.SonoffDeviceTypes;
 import org.openhab.binding.sonoff.internal.communication.SonoffCommandMessage;
 import org.openhab.binding.sonoff.internal.communication.SonoffCommunicationManager;
 import org.openhab.binding.sonoff.internal.communication.SonoffCommunicationManagerListener;
@@ -66,21 +71,24 @@ public class SonoffAccountHandler extends BaseBridgeHandler
     private @Nullable ScheduledFuture<?> tokenTask;
     private @Nullable ScheduledFuture<?> connectionTask;
     private @Nullable ScheduledFuture<?> activateTask;
-    private @Nullable ScheduledFuture<?> queueTask;
+    private @Nullable ScheduledFuture<?> cacheTask;
 
     private Boolean lanConnected = false;
     private Boolean cloudConnected = false;
     private String mode = "";
 
-    private final Map<String, SonoffDeviceState> deviceStates = new HashMap<String, SonoffDeviceState>();
+    // States are read from the cache the first time a device is asked for
+    private final Map<String, SonoffDeviceState> deviceStates = new ConcurrentHashMap<String, SonoffDeviceState>();
+    private @Nullable SonoffCacheProvider cacheProvider;
     private final Map<String, SonoffDeviceListener> deviceListeners = new HashMap<String, SonoffDeviceListener>();
-    private final Map<String, String> ipaddresses = new HashMap<String, String>();
+    private final Map<String, String> ipaddresses = new ConcurrentHashMap<String, String>();
 
-    public SonoffAccountHandler(Bridge thing, WebSocketClient webSocketClient, HttpClient httpClient) {
+    public SonoffAccountHandler(Bridge thing, WebSocketClient webSocketClient, HttpClient httpClient,
+            HttpClient lanHttpClient) {
         super(thing);
         this.gson = new Gson();
         this.commandManager = new SonoffCommunicationManager(this, gson);
-        this.connectionManager = new SonoffConnectionManager(webSocketClient, httpClient, this);
+        this.connectionManager = new SonoffConnectionManager(webSocketClient, httpClient, lanHttpClient, this);
     }
 
     @Override
@@ -96,12 +104,11 @@ public class SonoffAccountHandler extends BaseBridgeHandler
         this.mode = config.accessmode;
         logger.info("Sonoff mode set to: {}", config.accessmode);
 
-        commandManager.start(config.accessmode);
+        commandManager.start(config.accessmode, config.commandWindow, config.retryDelay, config.breakerThreshold);
         restoreStates();
-        queueTask = scheduler.scheduleWithFixedDelay(commandManager, 0, 100, TimeUnit.MILLISECONDS);
 
         connectionManager.start(config.appId, config.appSecret, config.email, config.password, config.accessmode);
-        createTasks();
+        createTasks(config.cacheInterval);
     }
 
     @Override
@@ -126,21 +133,25 @@ public class SonoffAccountHandler extends BaseBridgeHandler
             connectionTask.cancel(true);
             this.connectionTask = null;
         }
-        final ScheduledFuture<?> queueTask = this.queueTask;
-        if (queueTask != null) {
-            commandManager.stopRunning();
-            queueTask.cancel(true);
-            this.queueTask = null;
+        final ScheduledFuture<?> cacheTask = this.cacheTask;
+        if (cacheTask != null) {
+            cacheTask.cancel(false);
+            this.cacheTask = null;
         }
         commandManager.stop();
         connectionManager.stop();
+        // Write out anything still pending
+        final SonoffCacheProvider cacheProvider = this.cacheProvider;
+        if (cacheProvider != null) {
+            cacheProvider.flush();
+        }
     }
 
     /**
      * Creates scheduled tasks for the account handler
      *
      */
-    private void createTasks() {
+    private void createTasks(Integer cacheInterval) {
         // Task to refresh our login credentials
         Runnable getToken = () -> {
             logger.info("Updating Sonoff Access Tokens");
@@ -158,6 +169,9 @@ public class SonoffAccountHandler extends BaseBridgeHandler
         Runnable activate = () -> {
             logger.debug("Running Activation task");
             connectionManager.sendPing();
+            if (!mode.equals("cloud")) {
+                logger.debug("{}", commandManager.getLanFrameStats());
+            }
             // Check all devices to see if their online status has changed
             // queueMessage(new SonoffCommandMessage());
             // For each device that supports streaming data send activation
@@ -166,9 +180,8 @@ public class SonoffAccountHandler extends BaseBridgeHandler
                     // Get the device status so we can check whether its back online
                     // queueMessage(new SonoffCommandMessage(entry.getKey()));
                     // if online send streaming data activation for certain devices
-                    Integer uiid = entry.getValue().getUiid();
-                    if (uiid.equals(5) || uiid.equals(32) || uiid.equals(15) || uiid.equals(181) || uiid.equals(190)) {
-                        if (entry.getValue().getCloud()) {
+                    if (SonoffDeviceTypes.hasTelemetry(entry.getValue().getUiid())) {
+                        if (entry.getValue().getState().getCloud()) {
                             UiActive uiActive = new UiActive();
                             uiActive.setUiActive(60);
                             SonoffCommandMessage message = new SonoffCommandMessage("uiActive",
@@ -180,6 +193,15 @@ public class SonoffAccountHandler extends BaseBridgeHandler
             }
         };
         activateTask = scheduler.scheduleWithFixedDelay(activate, 20, 60, TimeUnit.SECONDS);
+
+        // Task to write changed devices to the cache
+        Runnable cache = () -> {
+            SonoffCacheProvider cacheProvider = this.cacheProvider;
+            if (cacheProvider != null) {
+                cacheProvider.flush();
+            }
+        };
+        cacheTask = scheduler.scheduleWithFixedDelay(cache, cacheInterval, cacheInterval, TimeUnit.SECONDS);
     }
 
     // Updates the account status
@@ -221,7 +243,7 @@ public class SonoffAccountHandler extends BaseBridgeHandler
      *
      */
     @Override
-    public void sendLanMessage(String url, String payload) {
+    public void sendLanMessage(String url, ByteBuffer payload) {
         connectionManager.sendLanMessage(url, payload);
     }
 
@@ -234,6 +256,11 @@ public class SonoffAccountHandler extends BaseBridgeHandler
         connectionManager.sendApiMessage(deviceid);
     }
 
+    @Override
+    public void sendApiMessage(List<String> deviceids) {
+        connectionManager.sendApiMessage(deviceids);
+    }
+
     /**
      * Send Websocket messages coming back from the message provider
      *
@@ -292,15 +319,17 @@ public class SonoffAccountHandler extends BaseBridgeHandler
     }
 
     private void restoreStates() {
-        SonoffCacheProvider cacheProvider = new SonoffCacheProvider(gson);
-        Map<String, SonoffDeviceState> deviceStates = cacheProvider.getStates();
-        for (Map.Entry<String, SonoffDeviceState> entry : deviceStates.entrySet()) {
-            if (ipaddresses.containsKey(entry.getKey())) {
-                entry.getValue().setIpAddress(new StringType(ipaddresses.get(entry.getKey())));
-                entry.getValue().setLocal(true);
-            }
-            this.deviceStates.putIfAbsent(entry.getKey(), entry.getValue());
-        }
+        SonoffCacheProvider cacheProvider = new SonoffCacheProvider();
+        this.cacheProvider = cacheProvider;
+        logger.debug("Device cache holds {} devices", cacheProvider.getDeviceids().size());
+    }
+
+    /**
+     * @return the last published channel states of the things, or null before the cache is open
+     */
+    public @Nullable SonoffChannelSnapshots getChannelSnapshots() {
+        SonoffCacheProvider cacheProvider = this.cacheProvider;
+        return cacheProvider != null ? cacheProvider.getChannelSnapshots() : null;
     }
 
     /**
@@ -308,14 +337,44 @@ public class SonoffAccountHandler extends BaseBridgeHandler
      *
      */
     public void addState(String deviceid) {
-        SonoffCacheProvider cacheProvider = new SonoffCacheProvider(gson);
-        SonoffDeviceState state = cacheProvider.getState(deviceid);
-        if (state != null) {
-            if (ipaddresses.containsKey(deviceid)) {
-                state.setIpAddress(new StringType(ipaddresses.get(deviceid)));
-                state.setLocal(true);
+        loadState(deviceid);
+    }
+
+    /**
+     * Drops the state of a device so it is loaded again from the cache, used when the cached device has changed
+     */
+    public void refreshState(String deviceid) {
+        synchronized (deviceStates) {
+            deviceStates.remove(deviceid);
+            loadState(deviceid);
+        }
+    }
+
+    private @Nullable SonoffDeviceState loadState(String deviceid) {
+        synchronized (deviceStates) {
+            SonoffDeviceState state = deviceStates.get(deviceid);
+            SonoffCacheProvider cacheProvider = this.cacheProvider;
+            if (state == null && cacheProvider != null && cacheProvider.checkFile(deviceid)) {
+                state = cacheProvider.getState(deviceid);
+                if (state != null) {
+                    String ipaddress = ipaddresses.get(deviceid);
+                    if (ipaddress != null) {
+                        state.setIpAddress(new StringType(ipaddress));
+                        state.setLocal(true);
+                        state.publish();
+                    }
+                    deviceStates.put(deviceid, state);
+                }
             }
-            this.deviceStates.putIfAbsent(deviceid, state);
+            return state;
+        }
+    }
+
+    @Override
+    public void updateCache(JsonObject device) {
+        SonoffCacheProvider cacheProvider = this.cacheProvider;
+        if (cacheProvider != null) {
+            cacheProvider.updateDevice(device);
         }
     }
 
@@ -325,11 +384,8 @@ public class SonoffAccountHandler extends BaseBridgeHandler
      */
     @Override
     public @Nullable SonoffDeviceState getState(String deviceid) {
-        if (this.deviceStates.containsKey(deviceid)) {
-            return this.deviceStates.get(deviceid);
-        } else {
-            return null;
-        }
+        SonoffDeviceState state = deviceStates.get(deviceid);
+        return state != null ? state : loadState(deviceid);
     }
 
     @Override
@@ -17,7 +17,7 @@ import java.util.Map;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
-import org.openhab.binding.sonoff.internal.SonoffBindingConstants;
+import org.openhab.binding.sonoff.internal.SonoffDeviceTypes;
 import org.openhab.binding.sonoff.internal.communication.SonoffCommandMessage;
 import org.openhab.binding.sonoff.internal.config.DeviceConfig;
 import org.openhab.binding.sonoff.internal.dto.commands.SLed;
@@ -29,6 +29,7 @@ import org.openhab.core.thing.ThingStatusInfo;
 import org.openhab.core.thing.binding.BaseBridgeHandler;
 import org.openhab.core.types.Command;
 import org.openhab.core.types.RefreshType;
+import org.openhab.core.types.State;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xml.sax.HandlerBase;
@@ -52,6 +53,7 @@ public abstract class SonoffBaseBridgeHandler extends BaseBridgeHandler implemen
 
     protected @Nullable SonoffAccountHandler account;
     protected final Map<String, SonoffRfDeviceListener> rfListeners = new HashMap<>();
+    private final SonoffChannelStates channelStates = new SonoffChannelStates(super::updateState);
 
     public SonoffBaseBridgeHandler(Bridge thing) {
         super(thing);
@@ -81,10 +83,10 @@ public abstract class SonoffBaseBridgeHandler extends BaseBridgeHandler implemen
             } else {
                 if (!account.getMode().equals("cloud") && config.local == true) {
                     // Check whether we are a local only device
-                    if (SonoffBindingConstants.LAN_IN.contains(state.getUiid())) {
+                    if (SonoffDeviceTypes.isLanIn(state.getUiid())) {
                         isLocalIn = true;
                     }
-                    if (SonoffBindingConstants.LAN_OUT.contains(state.getUiid())) {
+                    if (SonoffDeviceTypes.isLanOut(state.getUiid())) {
                         this.isLocalOut = true;
                     }
                 }
@@ -96,6 +98,7 @@ public abstract class SonoffBaseBridgeHandler extends BaseBridgeHandler implemen
                 }
 
                 setProperties(state.getProperties());
+                restoreChannels();
                 account.addDeviceListener(this.deviceid, this);
                 // Get initial connection statuses
                 checkBridge();
@@ -115,9 +118,53 @@ public abstract class SonoffBaseBridgeHandler extends BaseBridgeHandler implemen
         this.cloud = false;
         this.local = false;
         this.account = null;
+        channelStates.clear();
         super.dispose();
     }
 
+    // Only publish channels whose state changed since they were last published
+    @Override
+    protected void updateState(String channelID, State state) {
+        channelStates.update(channelID, state);
+    }
+
+    /**
+     * Publishes the channel states saved on the last run so they show straight away
+     *
+     * @return true if there were any
+     */
+    protected boolean restoreChannels() {
+        return restoreChannels(() -> {
+        });
+    }
+
+    /**
+     * Publishes the channel states saved on the last run, then runs cached which applies the cached device without
+     * overwriting them
+     *
+     * @return true if there were any
+     */
+    protected boolean restoreChannels(Runnable cached) {
+        SonoffAccountHandler account = this.account;
+        boolean restored = channelStates.restore(account != null ? account.getChannelSnapshots() : null,
+                thing.getUID().getAsString(), cached);
+        logger.debug("Restored channel states for {}: {}", thing.getUID(), restored);
+        return restored;
+    }
+
+    @Override
+    public void handleRemoval() {
+        channelStates.removeSnapshots();
+        super.handleRemoval();
+    }
+
+    @Override
+    public void channelLinked(ChannelUID channelUID) {
+        // A newly linked item needs the current state even if it has not changed
+        channelStates.forget(channelUID.getId());
+        super.channelLinked(channelUID);
+    }
+
     @Override
     public void bridgeStatusChanged(ThingStatusInfo bridgeStatusInfo) {
         logger.debug("bridgeStatusChanged {} for thing {}", bridgeStatusInfo, getThing().getUID());
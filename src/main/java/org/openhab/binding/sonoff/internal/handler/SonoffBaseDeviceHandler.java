@@ -12,15 +12,22 @@
  */
 package org.openhab.binding.sonoff.internal.handler;
 
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
+import javax.measure.quantity.Energy;
+
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
-import org.openhab.binding.sonoff.internal.SonoffBindingConstants;
+import org.openhab.binding.sonoff.internal.SonoffDeviceTypes;
 import org.openhab.binding.sonoff.internal.communication.SonoffCommandMessage;
 import org.openhab.binding.sonoff.internal.config.DeviceConfig;
 import org.openhab.binding.sonoff.internal.dto.commands.SLed;
+import org.openhab.core.library.types.QuantityType;
+import org.openhab.core.library.unit.Units;
 import org.openhab.core.thing.Bridge;
 import org.openhab.core.thing.ChannelUID;
 import org.openhab.core.thing.Thing;
@@ -30,6 +37,8 @@ import org.openhab.core.thing.ThingStatusInfo;
 import org.openhab.core.thing.binding.BaseThingHandler;
 import org.openhab.core.types.Command;
 import org.openhab.core.types.RefreshType;
+import org.openhab.core.types.State;
+import org.openhab.core.types.TimeSeries;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xml.sax.HandlerBase;
@@ -53,6 +62,8 @@ public abstract class SonoffBaseDeviceHandler extends BaseThingHandler implement
 
     protected @Nullable SonoffAccountHandler account;
     protected final Map<String, SonoffRfDeviceListener> rfListeners = new HashMap<>();
+    private final SonoffChannelStates channelStates = new SonoffChannelStates(super::updateState);
+    private double[] publishedKwhHistory = new double[0];
 
     public SonoffBaseDeviceHandler(Thing thing) {
         super(thing);
@@ -81,10 +92,10 @@ public abstract class SonoffBaseDeviceHandler extends BaseThingHandler implement
             } else {
                 if (!account.getMode().equals("cloud") && config.local == true) {
                     // Check whether we are a local only device
-                    if (SonoffBindingConstants.LAN_IN.contains(state.getUiid())) {
+                    if (SonoffDeviceTypes.isLanIn(state.getUiid())) {
                         isLocalIn = true;
                     }
-                    if (SonoffBindingConstants.LAN_OUT.contains(state.getUiid())) {
+                    if (SonoffDeviceTypes.isLanOut(state.getUiid())) {
                         this.isLocalOut = true;
                     }
                 }
@@ -95,8 +106,10 @@ public abstract class SonoffBaseDeviceHandler extends BaseThingHandler implement
                     return;
                 }
                 setProperties(state.getProperties());
+                // Show the last run's channel states straight away, the cached device then fills in the channels that
+                // had none without overwriting the restored ones with older values
+                restoreChannels(() -> updateDevice(state.getState()));
                 account.addDeviceListener(this.deviceid, this);
-                updateDevice(state.getState());
                 // Get initial connection statuses
                 checkBridge();
             }
@@ -115,9 +128,75 @@ public abstract class SonoffBaseDeviceHandler extends BaseThingHandler implement
         this.cloud = false;
         this.local = false;
         this.account = null;
+        channelStates.clear();
+        this.publishedKwhHistory = new double[0];
         super.dispose();
     }
 
+    // Only publish channels whose state changed since they were last published
+    @Override
+    protected void updateState(String channelID, State state) {
+        channelStates.update(channelID, state);
+    }
+
+    /**
+     * Publishes the channel states saved on the last run so they show straight away
+     *
+     * @return true if there were any
+     */
+    protected boolean restoreChannels() {
+        return restoreChannels(() -> {
+        });
+    }
+
+    /**
+     * Publishes the channel states saved on the last run, then runs cached which applies the cached device without
+     * overwriting them
+     *
+     * @return true if there were any
+     */
+    protected boolean restoreChannels(Runnable cached) {
+        SonoffAccountHandler account = this.account;
+        boolean restored = channelStates.restore(account != null ? account.getChannelSnapshots() : null,
+                thing.getUID().getAsString(), cached);
+        logger.debug("Restored channel states for {}: {}", thing.getUID(), restored);
+        return restored;
+    }
+
+    @Override
+    public void handleRemoval() {
+        channelStates.removeSnapshots();
+        super.handleRemoval();
+    }
+
+    /**
+     * Sends the daily energy history as a time series so persistence gets a value for each of the days, not just the
+     * totals. Only sent when the device reported a different history, the cached history seen while restoring was
+     * already sent by the last run.
+     */
+    protected void updateKwhHistory(String channelID, double[] history) {
+        if (history.length == 0 || Arrays.equals(history, publishedKwhHistory)) {
+            return;
+        }
+        publishedKwhHistory = history;
+        if (channelStates.isRestoring()) {
+            return;
+        }
+        TimeSeries series = new TimeSeries(TimeSeries.Policy.REPLACE);
+        ZonedDateTime today = ZonedDateTime.now().truncatedTo(ChronoUnit.DAYS);
+        for (int day = history.length - 1; day >= 0; day--) {
+            series.add(today.minusDays(day).toInstant(), new QuantityType<Energy>(history[day], Units.KILOWATT_HOUR));
+        }
+        sendTimeSeries(channelID, series);
+    }
+
+    @Override
+    public void channelLinked(ChannelUID channelUID) {
+        // A newly linked item needs the current state even if it has not changed
+        channelStates.forget(channelUID.getId());
+        super.channelLinked(channelUID);
+    }
+
     @Override
     public void bridgeStatusChanged(ThingStatusInfo bridgeStatusInfo) {
         logger.debug("bridgeStatusChanged {} for thing {}", bridgeStatusInfo, getThing().getUID());
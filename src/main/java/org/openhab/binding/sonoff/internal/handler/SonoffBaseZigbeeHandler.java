@@ -63,6 +63,7 @@ public abstract class SonoffBaseZigbeeHandler extends SonoffBaseDeviceHandler {
                         }
 
                         setProperties(state.getProperties());
+                        restoreChannels();
                         account.addDeviceListener(this.deviceid, this);
                         checkBridge();
                     } else {
@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.sonoff.internal.handler;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.binding.sonoff.internal.SonoffChannelSnapshots;
+import org.openhab.core.types.State;
+
+/**
+ * The {@link SonoffChannelStates} remembers the last state published on each channel of a thing so a handler only
+ * publishes the channels whose state actually changed. Devices send their full state on every update, so without this
+ * every channel would post an event on each message even when only one value moved. Published states are also kept in
+ * the {@link SonoffChannelSnapshots} so the next run can show them before the device is heard from. Device and bridge
+ * handlers both publish through one of these so they behave the same.
+ *
+ * @author David Murton - Initial contribution
+ */
+@NonNullByDefault
+public class SonoffChannelStates {
+
+    private final Map<String, State> published = new ConcurrentHashMap<>();
+    // Publishes a state on the thing without going through this filter again
+    private final BiConsumer<String, State> publisher;
+    private @Nullable SonoffChannelSnapshots snapshots;
+    private String thingUID = "";
+    // Set while the cached device is applied after the last run's channel states were restored
+    private boolean restoring = false;
+    // Channels that were restored, the cached device is only kept from overwriting these
+    private final Set<String> restored = new HashSet<>();
+
+    public SonoffChannelStates(BiConsumer<String, State> publisher) {
+        this.publisher = publisher;
+    }
+
+    /**
+     * Publishes the state if it differs from the one last published on the channel
+     */
+    public void update(String channelID, State state) {
+        if (restoring && restored.contains(channelID)) {
+            return;
+        }
+        if (changed(channelID, state)) {
+            publisher.accept(channelID, state);
+            SonoffChannelSnapshots snapshots = this.snapshots;
+            if (snapshots != null) {
+                snapshots.put(thingUID, channelID, state);
+            }
+        }
+    }
+
+    /**
+     * Publishes the channel states saved on the last run so they show straight away, then applies the cached device
+     * without letting it overwrite them with older values. Channels without a saved state get theirs from the cached
+     * device.
+     *
+     * @return true if there were any saved states
+     */
+    public boolean restore(@Nullable SonoffChannelSnapshots snapshots, String thingUID, Runnable cached) {
+        this.snapshots = snapshots;
+        this.thingUID = thingUID;
+        Map<String, State> channels = snapshots != null ? snapshots.get(thingUID) : Map.of();
+        for (Map.Entry<String, State> channel : channels.entrySet()) {
+            if (changed(channel.getKey(), channel.getValue())) {
+                publisher.accept(channel.getKey(), channel.getValue());
+            }
+        }
+        restored.addAll(channels.keySet());
+        restoring = !channels.isEmpty();
+        try {
+            cached.run();
+        } finally {
+            restoring = false;
+            restored.clear();
+        }
+        return !channels.isEmpty();
+    }
+
+    /**
+     * Drops the saved states of the thing, used when it is removed
+     */
+    public void removeSnapshots() {
+        SonoffChannelSnapshots snapshots = this.snapshots;
+        if (snapshots != null) {
+            snapshots.remove(thingUID);
+        }
+    }
+
+    /**
+     * @return true while the cached device is applied after a restore
+     */
+    public boolean isRestoring() {
+        return restoring;
+    }
+
+    /**
+     * @return true if the state differs from the one last published on the channel, which is then recorded
+     */
+    public boolean changed(String channelID, State state) {
+        return !state.equals(published.put(channelID, state));
+    }
+
+    /**
+     * Forget the last state of a channel so the next update is published even if it is unchanged
+     */
+    public void forget(String channelID) {
+        published.remove(channelID);
+    }
+
+    public void clear() {
+        published.clear();
+    }
+}
@@ -12,10 +12,15 @@
  */
 package org.openhab.binding.sonoff.internal.handler;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.openhab.binding.sonoff.internal.SonoffDeviceTypes;
+import org.openhab.binding.sonoff.internal.SonoffDeviceTypes.Profile;
 import org.openhab.core.library.types.StringType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,20 +28,28 @@ import org.slf4j.LoggerFactory;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 /**
- * The {@link SonoffDeviceState} contains the base state of a device
+ * The {@link SonoffDeviceState} contains the base state of a device. Updates are applied to a working copy by the
+ * communication manager while it holds the lock for the device, {@link #publish()} then swaps in a new immutable
+ * snapshot that {@link #getState()} hands to readers, so they never lock and never see a half applied update.
  *
  * @author David Murton - Initial contribution
  */
 @NonNullByDefault
 public class SonoffDeviceState {
+    private static final int KWH_DAYS = 100;
+
     private final Logger logger = LoggerFactory.getLogger(SonoffAccountHandler.class);
 
     // Main Parameters
     private final String deviceKey;
     private final Integer uiid;
+    private final Profile profile;
     private final String deviceid;
     // Properties
     private final String name;
@@ -48,12 +61,15 @@ public class SonoffDeviceState {
     private JsonArray subDevices = new JsonArray();
     private Boolean local = false;
     private Boolean cloud = false;
-    // Parameters
-    private final SonoffDeviceStateParameters parameters;
+    // Parameters, replaced by a new copy while a websocket update is read so a bad frame leaves them untouched
+    private SonoffDeviceStateParameters parameters;
+    // Last published snapshot, a snapshot is its own snapshot
+    private volatile SonoffDeviceState snapshot;
 
     public SonoffDeviceState(JsonObject device) {
         this.deviceid = device.get("deviceid").getAsString();
         this.uiid = device.getAsJsonObject("extra").get("uiid").getAsInt();
+        this.profile = SonoffDeviceTypes.getProfile(uiid);
         this.deviceKey = device.get("devicekey").getAsString();
         this.name = device.get("name").getAsString();
         this.brand = device.get("brandName").getAsString();
@@ -61,13 +77,31 @@ public class SonoffDeviceState {
         JsonElement firmware = device.getAsJsonObject("params").get("fwVersion");
         this.fw = firmware != null ? firmware.getAsString() : "Not Applicable";
         this.parameters = new SonoffDeviceStateParameters();
+        this.snapshot = this;
         updateState(device);
+        publish();
+    }
+
+    private SonoffDeviceState(SonoffDeviceState state) {
+        this.deviceKey = state.deviceKey;
+        this.uiid = state.uiid;
+        this.profile = state.profile;
+        this.deviceid = state.deviceid;
+        this.name = state.name;
+        this.brand = state.brand;
+        this.model = state.model;
+        this.fw = state.fw;
+        this.ipAddress = state.ipAddress;
+        this.subDevices = state.subDevices;
+        this.local = state.local;
+        this.cloud = state.cloud;
+        this.parameters = new SonoffDeviceStateParameters(state.parameters);
+        this.snapshot = this;
     }
 
     public SonoffDeviceState updateState(JsonObject device) {
         if (device.get("ipaddress") != null) {
-            setIpAddress(new StringType(device.get("ipaddress").getAsString()));
-            setLocal(getIpAddress().toString().equals("") ? false : true);
+            updateIpAddress(device.get("ipaddress").getAsString());
         }
         if (device.get("online") != null) {
             setCloud(device.get("online").getAsBoolean());
@@ -78,20 +112,294 @@ public class SonoffDeviceState {
             }
         }
         setParameters(device.getAsJsonObject("params"));
-        if (uiid.equals(66) || uiid.equals(28)) {
+        if (profile == Profile.ZIGBEE_BRIDGE || profile == Profile.RF_BRIDGE) {
             setSubDevices(device);
         }
         return this;
     }
 
+    /**
+     * Makes the updates applied so far visible to readers. Must be called by the thread that applied them.
+     *
+     * @return the new snapshot
+     */
+    public SonoffDeviceState publish() {
+        SonoffDeviceState snapshot = new SonoffDeviceState(this);
+        this.snapshot = snapshot;
+        return snapshot;
+    }
+
+    /**
+     * @return the last published snapshot, which must be treated as read only
+     */
     public SonoffDeviceState getState() {
-        return this;
+        return snapshot;
     }
 
     public SonoffDeviceStateParameters getParameters() {
         return parameters;
     }
 
+    /**
+     * Applies the params of a websocket update read straight from the frame, known keys go directly to a copy of the
+     * parameters without building a json tree first. The copy only replaces the parameters once the whole frame has
+     * been read, if reading fails nothing is changed. The reader must be positioned at the start of the params object.
+     */
+    public SonoffDeviceState updateState(JsonReader params) throws IOException {
+        return updateState(params, new JsonObject());
+    }
+
+    /**
+     * As {@link #updateState(JsonReader)}, the params that were applied are also added to received as they would
+     * appear in a json tree so they can be cached. Params that are skipped are left out.
+     */
+    public SonoffDeviceState updateState(JsonReader params, JsonObject received) throws IOException {
+        SonoffDeviceStateParameters previous = parameters;
+        parameters = new SonoffDeviceStateParameters(previous);
+        boolean read = false;
+        try {
+            readParameters(params, received);
+            read = true;
+        } finally {
+            if (!read) {
+                parameters = previous;
+            }
+        }
+        return this;
+    }
+
+    private void readParameters(JsonReader params, JsonObject received) throws IOException {
+        Boolean online = null;
+        JsonArray zigbeeDevices = null;
+        // A single switch wins over the switches array, as it does for a json tree
+        String single = null;
+        List<String> switches = null;
+        Integer colorR = null;
+        Integer colorG = null;
+        Integer colorB = null;
+        params.beginObject();
+        while (params.hasNext()) {
+            String key = params.nextName();
+            if (params.peek() == JsonToken.NULL) {
+                params.skipValue();
+                continue;
+            }
+            switch (key) {
+                case "online":
+                    online = params.peek() == JsonToken.BOOLEAN ? params.nextBoolean()
+                            : Boolean.parseBoolean(params.nextString());
+                    received.addProperty(key, online);
+                    break;
+                // Switches
+                case "switch":
+                    single = nextString(params, key, received);
+                    break;
+                case "switches":
+                    switches = new ArrayList<>();
+                    JsonArray receivedSwitches = new JsonArray();
+                    params.beginArray();
+                    while (params.hasNext()) {
+                        JsonObject receivedSwitch = new JsonObject();
+                        String switchState = null;
+                        params.beginObject();
+                        while (params.hasNext()) {
+                            if (params.nextName().equals("switch")) {
+                                switchState = nextString(params, "switch", receivedSwitch);
+                            } else {
+                                params.skipValue();
+                            }
+                        }
+                        params.endObject();
+                        switches.add(switchState);
+                        receivedSwitches.add(receivedSwitch);
+                    }
+                    params.endArray();
+                    received.add(key, receivedSwitches);
+                    break;
+                // Electric
+                case "power":
+                    parameters.setPower(scaled(nextString(params, key, received)));
+                    break;
+                case "voltage":
+                    parameters.setVoltage(scaled(nextString(params, key, received)));
+                    break;
+                case "current":
+                    parameters.setCurrent(scaled(nextString(params, key, received)));
+                    break;
+                case "battery":
+                    parameters.setBattery(nextDouble(params, key, received));
+                    break;
+                case "dayKwh":
+                    parameters.setDayKwh(nextDouble(params, key, received) / 100);
+                    break;
+                case "monthKwh":
+                    parameters.setMonthKwh(nextDouble(params, key, received) / 100);
+                    break;
+                // Energy
+                case "hundredDaysKwhData":
+                    setKwhData(nextString(params, key, received));
+                    break;
+                // Temperature and humidity
+                case "currentTemperature":
+                    if (isTH() && params.peek() == JsonToken.STRING) {
+                        parameters.setTemperature(parseReading(nextString(params, key, received)));
+                    } else {
+                        params.skipValue();
+                    }
+                    break;
+                case "temperature":
+                    if (isTH()) {
+                        parameters.setTemperature(params.peek() == JsonToken.STRING
+                                ? parseReading(nextString(params, key, received))
+                                : nextDouble(params, key, received));
+                    } else {
+                        parameters.setTemperature(Double.valueOf(nextInt(params, key, received) / 100));
+                    }
+                    break;
+                case "currentHumidity":
+                    if (isTH() && params.peek() == JsonToken.STRING) {
+                        parameters.setHumidity(parseReading(nextString(params, key, received)));
+                    } else {
+                        params.skipValue();
+                    }
+                    break;
+                case "humidity":
+                    if (isTH()) {
+                        parameters.setHumidity(params.peek() == JsonToken.STRING
+                                ? parseReading(nextString(params, key, received))
+                                : nextDouble(params, key, received));
+                    } else {
+                        parameters.setHumidity(Double.valueOf(nextInt(params, key, received) / 100));
+                    }
+                    break;
+                // Sensors
+                case "sensorType":
+                    parameters.setSensorType(nextString(params, key, received));
+                    break;
+                // Actions
+                case "lastUpdate":
+                    parameters.setLastUpdate(nextString(params, key, received));
+                    break;
+                case "actionTime":
+                    parameters.setActionTime(nextString(params, key, received));
+                    break;
+                // RGB
+                case "mode":
+                    int mode = nextInt(params, key, received);
+                    parameters.setMode(mode);
+                    parameters.setMusicMode(mode == 12 ? "on" : "off");
+                    break;
+                case "sensitive":
+                    parameters.setSensitivity(nextInt(params, key, received));
+                    break;
+                case "speed":
+                    parameters.setSpeed(nextInt(params, key, received));
+                    break;
+                case "colorR":
+                    colorR = nextInt(params, key, received);
+                    break;
+                case "colorG":
+                    colorG = nextInt(params, key, received);
+                    break;
+                case "colorB":
+                    colorB = nextInt(params, key, received);
+                    break;
+                case "ltype":
+                    parameters.setLtype(nextString(params, key, received));
+                    break;
+                case "bright":
+                    parameters.setColorBrightness(nextInt(params, key, received));
+                    break;
+                // Colour CCT Bulb
+                case "white":
+                    setWhite(nextTree(params, key, received).getAsJsonObject());
+                    break;
+                case "color":
+                    setColor(nextTree(params, key, received).getAsJsonObject());
+                    break;
+                // Other
+                case "sledOnline":
+                    parameters.setNetworkLED(nextString(params, key, received));
+                    break;
+                case "rssi":
+                    parameters.setRssi(nextInt(params, key, received));
+                    break;
+                case "zled":
+                    parameters.setZigbeeLED(nextString(params, key, received));
+                    break;
+                // RF
+                case "rfList":
+                    parameters.setRfCodeList(nextTree(params, key, received).getAsJsonArray());
+                    break;
+                // Zigbee
+                case "trigTime":
+                    parameters.setTrigTime(nextString(params, key, received));
+                    break;
+                case "motion":
+                    parameters.setMotion(nextInt(params, key, received));
+                    break;
+                case "subDevices":
+                    if (profile == Profile.ZIGBEE_BRIDGE) {
+                        zigbeeDevices = nextTree(params, key, received).getAsJsonArray();
+                    } else {
+                        params.skipValue();
+                    }
+                    break;
+                default:
+                    if (key.startsWith("rfTrig")) {
+                        setRf(key, nextString(params, key, received));
+                    } else {
+                        params.skipValue();
+                    }
+            }
+        }
+        params.endObject();
+        if (single != null) {
+            parameters.setSwitch0(single);
+        } else if (switches != null) {
+            for (int i = 0; i < switches.size(); i++) {
+                String switchState = switches.get(i);
+                if (switchState != null) {
+                    setSwitch(i, switchState);
+                }
+            }
+        }
+        if (colorR != null && colorG != null && colorB != null) {
+            parameters.setColor(colorR, colorG, colorB);
+        }
+        if (online != null) {
+            setCloud(online);
+        }
+        if (zigbeeDevices != null) {
+            this.subDevices = zigbeeDevices;
+        }
+    }
+
+    // Whole numbers are sometimes sent with decimals or as strings, they are truncated as getAsInt() does
+    private static int nextInt(JsonReader params, String key, JsonObject received) throws IOException {
+        int value = (int) params.nextDouble();
+        received.addProperty(key, value);
+        return value;
+    }
+
+    private static double nextDouble(JsonReader params, String key, JsonObject received) throws IOException {
+        double value = params.nextDouble();
+        received.addProperty(key, value);
+        return value;
+    }
+
+    private static String nextString(JsonReader params, String key, JsonObject received) throws IOException {
+        String value = params.nextString();
+        received.addProperty(key, value);
+        return value;
+    }
+
+    private static JsonElement nextTree(JsonReader params, String key, JsonObject received) {
+        JsonElement value = JsonParser.parseReader(params);
+        received.add(key, value);
+        return value;
+    }
+
     private void setParameters(JsonObject params) {
 
         // Switches
@@ -104,43 +412,22 @@ public class SonoffDeviceState {
                 JsonObject switchObj = switches.get(i).getAsJsonObject();
 
                 if (switchObj.has("switch")) {
-                    String switchState = switchObj.get("switch").getAsString();
-
-                    switch (i) {
-                        case 0:
-                            parameters.setSwitch0(switchState);
-                            break;
-                        case 1:
-                            parameters.setSwitch1(switchState);
-                            break;
-                        case 2:
-                            parameters.setSwitch2(switchState);
-                            break;
-                        case 3:
-                            parameters.setSwitch3(switchState);
-                            break;
-                        default:
-                            logger.warn(
-                                    "Sonoff addon support only devices with at most 4 switches, ignoring switch: " + i);
-                    }
+                    setSwitch(i, switchObj.get("switch").getAsString());
                 }
             }
         }
 
         // Electric
         if (params.get("power") != null) {
-            parameters.setPower(uiid.equals(190) ? Double.toString(params.get("power").getAsDouble() / 100)
-                    : params.get("power").getAsString());
+            parameters.setPower(scaled(params.get("power").getAsString()));
         }
 
         if (params.get("voltage") != null) {
-            parameters.setVoltage(uiid.equals(190) ? Double.toString(params.get("voltage").getAsDouble() / 100)
-                    : params.get("voltage").getAsString());
+            parameters.setVoltage(scaled(params.get("voltage").getAsString()));
         }
 
         if (params.get("current") != null) {
-            parameters.setCurrent(uiid.equals(190) ? Double.toString(params.get("current").getAsDouble() / 100)
-                    : params.get("current").getAsString());
+            parameters.setCurrent(scaled(params.get("current").getAsString()));
         }
 
         if (params.get("battery") != null) {
@@ -157,51 +444,22 @@ public class SonoffDeviceState {
 
         // Energy
         if (params.get("hundredDaysKwhData") != null) {
-            String kwhData = params.get("hundredDaysKwhData").getAsString();
-            if (!kwhData.equals("get")) {
-                String[] hexValues;
-                String[] splitData = kwhData.split("(?<=\\G.{6})");
-                double total = 0.00;
-                for (int i = 0; i < 100; i++) {
-                    hexValues = splitData[i].split("(?<=\\G.{2})");
-                    total = total + Double.parseDouble(Integer.parseInt(hexValues[0], 16) + "."
-                            + Integer.parseInt(hexValues[1], 16) + Integer.parseInt(hexValues[2], 16));
-                    if (i == 0) {
-                        parameters.setTodayKwh(total);
-                    }
-                    if (i == 1) {
-                        double newtotal = Double.parseDouble(Integer.parseInt(hexValues[0], 16) + "."
-                                + Integer.parseInt(hexValues[1], 16) + Integer.parseInt(hexValues[2], 16));
-                        parameters.setYesterdayKwh(newtotal);
-                    }
-                    if (i == 6) {
-                        parameters.setSevenKwh(total);
-                    }
-                    if (i == 29) {
-                        parameters.setThirtyKwh(total);
-                    }
-                    if (i == 99) {
-                        parameters.setHundredKwh(total);
-                    }
-                }
-            }
+            setKwhData(params.get("hundredDaysKwhData").getAsString());
         }
 
-        if ((uiid.equals(15)) || (uiid.equals(181))) {
+        if (isTH()) {
             // api returns a string always
             if (params.get("currentTemperature") != null) {
                 JsonPrimitive p = params.get("currentTemperature").getAsJsonPrimitive();
                 if (p.isString()) {
-                    parameters.setTemperature(
-                            p.getAsString().equals("unavailable") ? 0.00 : Double.parseDouble(p.getAsString()));
+                    parameters.setTemperature(parseReading(p.getAsString()));
                 }
             }
             // lan and websocket return a number most of the time
             if (params.get("temperature") != null) {
                 JsonPrimitive p = params.get("temperature").getAsJsonPrimitive();
                 if (p.isString()) {
-                    parameters.setTemperature(
-                            p.getAsString().equals("unavailable") ? 0.00 : Double.parseDouble(p.getAsString()));
+                    parameters.setTemperature(parseReading(p.getAsString()));
                 }
                 if (p.isNumber()) {
                     parameters.setTemperature(p.getAsDouble());
@@ -212,16 +470,14 @@ public class SonoffDeviceState {
             if (params.get("currentHumidity") != null) {
                 JsonPrimitive p = params.get("currentHumidity").getAsJsonPrimitive();
                 if (p.isString()) {
-                    parameters.setHumidity(
-                            p.getAsString().equals("unavailable") ? 0.00 : Double.parseDouble(p.getAsString()));
+                    parameters.setHumidity(parseReading(p.getAsString()));
                 }
             }
             // lan and websocket return a number most of the time
             if (params.get("humidity") != null) {
                 JsonPrimitive p = params.get("humidity").getAsJsonPrimitive();
                 if (p.isString()) {
-                    parameters.setHumidity(
-                            p.getAsString().equals("unavailable") ? 0.00 : Double.parseDouble(p.getAsString()));
+                    parameters.setHumidity(parseReading(p.getAsString()));
                 }
                 if (p.isNumber()) {
                     parameters.setHumidity(p.getAsDouble());
@@ -282,27 +538,12 @@ public class SonoffDeviceState {
 
         // White setting
         if (params.get("white") != null) {
-            // Color Temperature
-            Integer colorTemperature = params.get("white").getAsJsonObject().get("ct").getAsInt();
-            if (!colorTemperature.equals(0)) {
-                Double d = Double.valueOf(colorTemperature);
-                Double e = d / 255 * 100;
-                colorTemperature = (int) Math.round(e);
-            }
-            parameters.setColorTemperature(colorTemperature);
-
-            // Brightness
-            parameters.setWhiteBrightness(params.get("white").getAsJsonObject().get("br").getAsInt());
+            setWhite(params.get("white").getAsJsonObject());
         }
 
         // Color Setting
         if (params.get("color") != null) {
-            // Color
-            parameters.setColor(params.get("color").getAsJsonObject().get("r").getAsInt(),
-                    params.get("color").getAsJsonObject().get("g").getAsInt(),
-                    params.get("color").getAsJsonObject().get("b").getAsInt());
-            // Brightness
-            parameters.setColorBrightness(params.get("color").getAsJsonObject().get("br").getAsInt());
+            setColor(params.get("color").getAsJsonObject());
         }
 
         // Other
@@ -319,82 +560,145 @@ public class SonoffDeviceState {
         }
 
         // RF
-        if (params.get("rfTrig0") != null) {
-            parameters.setRf0(params.get("rfTrig0").getAsString());
-        }
-
-        if (params.get("rfTrig1") != null) {
-            parameters.setRf1(params.get("rfTrig1").getAsString());
-        }
-
-        if (params.get("rfTrig2") != null) {
-            parameters.setRf2(params.get("rfTrig2").getAsString());
+        for (int i = 0; i < 16; i++) {
+            JsonElement rfTrig = params.get("rfTrig" + i);
+            if (rfTrig != null) {
+                parameters.setRf(i, rfTrig.getAsString());
+            }
         }
 
-        if (params.get("rfTrig3") != null) {
-            parameters.setRf3(params.get("rfTrig3").getAsString());
+        if (params.get("rfList") != null) {
+            parameters.setRfCodeList(params.getAsJsonArray("rfList"));
         }
 
-        if (params.get("rfTrig4") != null) {
-            parameters.setRf4(params.get("rfTrig4").getAsString());
-        }
+        // Zigbee
 
-        if (params.get("rfTrig5") != null) {
-            parameters.setRf5(params.get("rfTrig5").getAsString());
+        if (params.get("trigTime") != null) {
+            parameters.setTrigTime(params.get("trigTime").getAsString());
         }
 
-        if (params.get("rfTrig6") != null) {
-            parameters.setRf6(params.get("rfTrig6").getAsString());
+        if (params.get("motion") != null) {
+            parameters.setMotion(params.get("motion").getAsInt());
         }
+    }
 
-        if (params.get("rfTrig7") != null) {
-            parameters.setRf7(params.get("rfTrig7").getAsString());
-        }
+    // TH devices report temperature and humidity in degrees and percent, others in hundredths
+    private boolean isTH() {
+        return profile == Profile.TH;
+    }
 
-        if (params.get("rfTrig8") != null) {
-            parameters.setRf8(params.get("rfTrig8").getAsString());
-        }
+    private double parseReading(String reading) {
+        return reading.equals("unavailable") ? 0.00 : Double.parseDouble(reading);
+    }
 
-        if (params.get("rfTrig9") != null) {
-            parameters.setRf9(params.get("rfTrig9").getAsString());
-        }
+    // POWR3 reports electrical values in hundredths
+    private String scaled(String value) {
+        return profile == Profile.POWR3 ? Double.toString(Double.parseDouble(value) / 100) : value;
+    }
 
-        if (params.get("rfTrig10") != null) {
-            parameters.setRf10(params.get("rfTrig10").getAsString());
+    private void setSwitch(int index, String switchState) {
+        switch (index) {
+            case 0:
+                parameters.setSwitch0(switchState);
+                break;
+            case 1:
+                parameters.setSwitch1(switchState);
+                break;
+            case 2:
+                parameters.setSwitch2(switchState);
+                break;
+            case 3:
+                parameters.setSwitch3(switchState);
+                break;
+            default:
+                logger.warn("Sonoff addon support only devices with at most 4 switches, ignoring switch: " + index);
         }
+    }
 
-        if (params.get("rfTrig11") != null) {
-            parameters.setRf11(params.get("rfTrig11").getAsString());
+    // Each day is three hex bytes, most recent first: the whole kWh, then two values whose digits form the decimals
+    private void setKwhData(String kwhData) {
+        if (kwhData.equals("get")) {
+            return;
+        }
+        if (kwhData.length() < KWH_DAYS * 6) {
+            logger.debug("Ignoring hundredDaysKwhData of {} characters for {}", kwhData.length(), deviceid);
+            return;
+        }
+        double[] history = new double[KWH_DAYS];
+        for (int day = 0, pos = 0; day < KWH_DAYS; day++, pos += 6) {
+            int whole = hexByte(kwhData, pos);
+            int first = hexByte(kwhData, pos + 2);
+            int second = hexByte(kwhData, pos + 4);
+            if (whole < 0 || first < 0 || second < 0) {
+                logger.debug("Ignoring hundredDaysKwhData with invalid characters for {}", deviceid);
+                return;
+            }
+            history[day] = kwh(whole, first, second);
         }
-
-        if (params.get("rfTrig12") != null) {
-            parameters.setRf12(params.get("rfTrig12").getAsString());
+        double total = 0.00;
+        for (int day = 0; day < KWH_DAYS; day++) {
+            total = total + history[day];
+            if (day == 0) {
+                parameters.setTodayKwh(total);
+            }
+            if (day == 6) {
+                parameters.setSevenKwh(total);
+            }
+            if (day == 29) {
+                parameters.setThirtyKwh(total);
+            }
         }
+        parameters.setYesterdayKwh(history[1]);
+        parameters.setHundredKwh(total);
+        parameters.setKwhHistory(history);
+    }
 
-        if (params.get("rfTrig13") != null) {
-            parameters.setRf13(params.get("rfTrig13").getAsString());
-        }
+    private static int hexByte(String data, int pos) {
+        int high = Character.digit(data.charAt(pos), 16);
+        int low = Character.digit(data.charAt(pos + 1), 16);
+        return high < 0 || low < 0 ? -1 : high << 4 | low;
+    }
 
-        if (params.get("rfTrig14") != null) {
-            parameters.setRf14(params.get("rfTrig14").getAsString());
-        }
+    // Same value as parsing whole + "." + first + second, worked out as an exact fraction so it rounds identically
+    private static double kwh(int whole, int first, int second) {
+        long secondScale = scale(second);
+        long denominator = scale(first) * secondScale;
+        return (double) (whole * denominator + first * secondScale + second) / denominator;
+    }
 
-        if (params.get("rfTrig15") != null) {
-            parameters.setRf15(params.get("rfTrig15").getAsString());
-        }
+    private static long scale(int value) {
+        return value < 10 ? 10 : value < 100 ? 100 : 1000;
+    }
 
-        if (params.get("rfList") != null) {
-            parameters.setRfCodeList(params.getAsJsonArray("rfList"));
+    private void setWhite(JsonObject white) {
+        // Color Temperature
+        Integer colorTemperature = white.get("ct").getAsInt();
+        if (!colorTemperature.equals(0)) {
+            Double d = Double.valueOf(colorTemperature);
+            Double e = d / 255 * 100;
+            colorTemperature = (int) Math.round(e);
         }
+        parameters.setColorTemperature(colorTemperature);
 
-        // Zigbee
+        // Brightness
+        parameters.setWhiteBrightness(white.get("br").getAsInt());
+    }
 
-        if (params.get("trigTime") != null) {
-            parameters.setTrigTime(params.get("trigTime").getAsString());
-        }
+    private void setColor(JsonObject color) {
+        // Color
+        parameters.setColor(color.get("r").getAsInt(), color.get("g").getAsInt(), color.get("b").getAsInt());
+        // Brightness
+        parameters.setColorBrightness(color.get("br").getAsInt());
+    }
 
-        if (params.get("motion") != null) {
-            parameters.setMotion(params.get("motion").getAsInt());
+    private void setRf(String key, String rfTrig) {
+        try {
+            int channel = Integer.parseInt(key.substring("rfTrig".length()));
+            if (channel >= 0 && channel < 16) {
+                parameters.setRf(channel, rfTrig);
+            }
+        } catch (NumberFormatException e) {
+            // Not an rf trigger
         }
     }
 
@@ -447,14 +751,22 @@ public class SonoffDeviceState {
         this.ipAddress = ipAddress;
     }
 
+    /**
+     * Sets the address the device was last heard from on the LAN, an empty address means it is not local
+     */
+    public void updateIpAddress(String ipAddress) {
+        setIpAddress(new StringType(ipAddress));
+        setLocal(!ipAddress.isEmpty());
+    }
+
     private void setSubDevices(JsonObject device) {
         JsonArray subDevices = null;
-        if (uiid.equals(66)) {
+        if (profile == Profile.ZIGBEE_BRIDGE) {
             if (device.getAsJsonObject("params").getAsJsonArray("subDevices") != null) {
                 subDevices = device.getAsJsonObject("params").getAsJsonArray("subDevices");
             }
         }
-        if (uiid.equals(28)) {
+        if (profile == Profile.RF_BRIDGE) {
             if (device.getAsJsonObject("tags") != null) {
                 subDevices = device.getAsJsonObject("tags").getAsJsonArray("zyx_info");
             }
@@ -14,6 +14,8 @@ package org.openhab.binding.sonoff.internal.handler;
 
 import static org.openhab.core.library.unit.Units.*;
 
+import java.time.DateTimeException;
+
 import javax.measure.quantity.Dimensionless;
 import javax.measure.quantity.ElectricCurrent;
 import javax.measure.quantity.ElectricPotential;
@@ -22,6 +24,7 @@ import javax.measure.quantity.Power;
 import javax.measure.quantity.Temperature;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
 import org.openhab.core.library.types.DateTimeType;
 import org.openhab.core.library.types.DecimalType;
 import org.openhab.core.library.types.HSBType;
@@ -30,464 +33,588 @@ import org.openhab.core.library.types.PercentType;
 import org.openhab.core.library.types.QuantityType;
 import org.openhab.core.library.types.StringType;
 import org.openhab.core.library.unit.SIUnits;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.gson.JsonArray;
 
 /**
- * The {@link SonoffDeviceStateParameters} contains the base state of a device
+ * The {@link SonoffDeviceStateParameters} contains the base state of a device. Values are kept as primitives and the
+ * openHAB states are only created when a handler reads them. RF triggers are stored sparsely as most bridges only use
+ * a few of the sixteen channels.
  *
  * @author David Murton - Initial contribution
  */
 @NonNullByDefault
 public class SonoffDeviceStateParameters {
 
+    private static final Logger logger = LoggerFactory.getLogger(SonoffDeviceStateParameters.class);
+
+    private static final String[] NO_RF = new String[0];
+    private static final double[] NO_HISTORY = new double[0];
+
+    // On / off values
+    private static final int SWITCH0 = 1;
+    private static final int SWITCH1 = 1 << 1;
+    private static final int SWITCH2 = 1 << 2;
+    private static final int SWITCH3 = 1 << 3;
+    private static final int MUSIC_MODE = 1 << 4;
+    private static final int NETWORK_LED = 1 << 5;
+    private static final int ZIGBEE_LED = 1 << 6;
+    private static final int MOTION = 1 << 7;
+
     // Parameters
-    // Switches
-    private OnOffType switch0 = OnOffType.OFF;
-    private OnOffType switch1 = OnOffType.OFF;
-    private OnOffType switch2 = OnOffType.OFF;
-    private OnOffType switch3 = OnOffType.OFF;
-    // Electric
-    private QuantityType<Power> power = new QuantityType<Power>(0.0, WATT);
-    private QuantityType<ElectricPotential> voltage = new QuantityType<ElectricPotential>(0.0, (VOLT));
-    private QuantityType<ElectricCurrent> current = new QuantityType<ElectricCurrent>(0.0, (AMPERE));
-    private QuantityType<ElectricPotential> battery = new QuantityType<ElectricPotential>(0.0, (VOLT));
+    // Switches and other on / off values
+    private int flags = 0;
+    // Electric, kept as float as that is what the devices report
+    private float power = 0;
+    private float voltage = 0;
+    private float current = 0;
+    private double battery = 0;
     // Energy
-    private QuantityType<Energy> dayKwh = new QuantityType<Energy>(0.0, KILOWATT_HOUR);
-    private QuantityType<Energy> monthKwh = new QuantityType<Energy>(0.0, KILOWATT_HOUR);
-    private QuantityType<Energy> todayKwh = new QuantityType<Energy>(0.0, KILOWATT_HOUR);
-    private QuantityType<Energy> yesterdayKwh = new QuantityType<Energy>(0.0, KILOWATT_HOUR);
-    private QuantityType<Energy> sevenKwh = new QuantityType<Energy>(0.0, KILOWATT_HOUR);
-    private QuantityType<Energy> thirtyKwh = new QuantityType<Energy>(0.0, KILOWATT_HOUR);
-    private QuantityType<Energy> hundredKwh = new QuantityType<Energy>(0.0, KILOWATT_HOUR);
+    private double dayKwh = 0;
+    private double monthKwh = 0;
+    private double todayKwh = 0;
+    private double yesterdayKwh = 0;
+    private double sevenKwh = 0;
+    private double thirtyKwh = 0;
+    private double hundredKwh = 0;
+    // Daily usage for the last 100 days, today first. Replaced rather than changed so copies can share it
+    private double[] kwhHistory = NO_HISTORY;
     // Sensors
-    private StringType sensorType = new StringType();
-    private QuantityType<Temperature> temperature = new QuantityType<Temperature>(0.0, SIUnits.CELSIUS);
-    private QuantityType<Dimensionless> humidity = new QuantityType<Dimensionless>(0.0, PERCENT);
+    private String sensorType = "";
+    private double temperature = 0;
+    private double humidity = 0;
+    // Times not reported yet default to when the parameters were created
+    private final String created;
     // Actions
-    private DateTimeType lastUpdate = new DateTimeType(System.currentTimeMillis() + "");
-    private DateTimeType actionTime = new DateTimeType(System.currentTimeMillis() + "");
+    private @Nullable String lastUpdate;
+    private @Nullable String actionTime;
     // RGB
-    private PercentType speed = new PercentType(0);
-    private DecimalType sensitivity = new DecimalType(0);
-    private DecimalType mode = new DecimalType(0);
-    private HSBType color = new HSBType();
-    private OnOffType musicMode = OnOffType.OFF;
-    private PercentType colourTemperature = new PercentType(0);
-    private StringType ltype = new StringType();
-    private PercentType whiteBrightness = new PercentType(0);
-    private PercentType colorBrightness = new PercentType(0);
-
+    private int speed = 0;
+    private int sensitivity = 0;
+    private int mode = 0;
+    private int rgb = 0;
+    private int colourTemperature = 0;
+    private String ltype = "";
+    private int whiteBrightness = 0;
+    private int colorBrightness = 0;
     // Other
-    private OnOffType networkLED = OnOffType.OFF;
-    private QuantityType<Power> rssi = new QuantityType<Power>(0.0, DECIBEL_MILLIWATTS);
-    private OnOffType zigbeeLED = OnOffType.OFF;
-    // RF
-    private DateTimeType rf0 = new DateTimeType(System.currentTimeMillis() + "");
-    private DateTimeType rf1 = new DateTimeType(System.currentTimeMillis() + "");
-    private DateTimeType rf2 = new DateTimeType(System.currentTimeMillis() + "");
-    private DateTimeType rf3 = new DateTimeType(System.currentTimeMillis() + "");
-    private DateTimeType rf4 = new DateTimeType(System.currentTimeMillis() + "");
-    private DateTimeType rf5 = new DateTimeType(System.currentTimeMillis() + "");
-    private DateTimeType rf6 = new DateTimeType(System.currentTimeMillis() + "");
-    private DateTimeType rf7 = new DateTimeType(System.currentTimeMillis() + "");
-    private DateTimeType rf8 = new DateTimeType(System.currentTimeMillis() + "");
-    private DateTimeType rf9 = new DateTimeType(System.currentTimeMillis() + "");
-    private DateTimeType rf10 = new DateTimeType(System.currentTimeMillis() + "");
-    private DateTimeType rf11 = new DateTimeType(System.currentTimeMillis() + "");
-    private DateTimeType rf12 = new DateTimeType(System.currentTimeMillis() + "");
-    private DateTimeType rf13 = new DateTimeType(System.currentTimeMillis() + "");
-    private DateTimeType rf14 = new DateTimeType(System.currentTimeMillis() + "");
-    private DateTimeType rf15 = new DateTimeType(System.currentTimeMillis() + "");
+    private int rssi = 0;
+    // RF, the triggers of the channels set in rfChannels in channel order. Replaced rather than changed so copies can
+    // share it
+    private int rfChannels = 0;
+    private String[] rfTriggers = NO_RF;
     private JsonArray rfCodeList = new JsonArray();
     // Zigbee
-    private DateTimeType trigTime = new DateTimeType(System.currentTimeMillis() + "");
-    private OnOffType motion = OnOffType.OFF;
+    private @Nullable String trigTime;
+
+    public SonoffDeviceStateParameters() {
+        this.created = System.currentTimeMillis() + "";
+    }
+
+    /**
+     * Copies the parameters of another instance, the arrays are replaced rather than changed so the copy shares them
+     */
+    public SonoffDeviceStateParameters(SonoffDeviceStateParameters other) {
+        this.flags = other.flags;
+        this.power = other.power;
+        this.voltage = other.voltage;
+        this.current = other.current;
+        this.battery = other.battery;
+        this.dayKwh = other.dayKwh;
+        this.monthKwh = other.monthKwh;
+        this.todayKwh = other.todayKwh;
+        this.yesterdayKwh = other.yesterdayKwh;
+        this.sevenKwh = other.sevenKwh;
+        this.thirtyKwh = other.thirtyKwh;
+        this.hundredKwh = other.hundredKwh;
+        this.kwhHistory = other.kwhHistory;
+        this.sensorType = other.sensorType;
+        this.temperature = other.temperature;
+        this.humidity = other.humidity;
+        this.created = other.created;
+        this.lastUpdate = other.lastUpdate;
+        this.actionTime = other.actionTime;
+        this.speed = other.speed;
+        this.sensitivity = other.sensitivity;
+        this.mode = other.mode;
+        this.rgb = other.rgb;
+        this.colourTemperature = other.colourTemperature;
+        this.ltype = other.ltype;
+        this.whiteBrightness = other.whiteBrightness;
+        this.colorBrightness = other.colorBrightness;
+        this.rssi = other.rssi;
+        this.rfChannels = other.rfChannels;
+        this.rfTriggers = other.rfTriggers;
+        this.rfCodeList = other.rfCodeList;
+        this.trigTime = other.trigTime;
+    }
+
+    private OnOffType getFlag(int flag) {
+        return (flags & flag) != 0 ? OnOffType.ON : OnOffType.OFF;
+    }
+
+    private void setFlag(int flag, boolean on) {
+        flags = on ? flags | flag : flags & ~flag;
+    }
+
+    private DateTimeType getTime(@Nullable String time) {
+        return new DateTimeType(time != null ? time : created);
+    }
+
+    // Times are only parsed when read, so one that cannot be parsed is turned away here rather than on every read
+    private static boolean isTime(String name, String time) {
+        try {
+            new DateTimeType(time);
+            return true;
+        } catch (IllegalArgumentException | DateTimeException e) {
+            logger.debug("Ignoring {} of {} as it is not a valid time: {}", name, time, e.getMessage());
+            return false;
+        }
+    }
+
+    // Percentages are stored as ints and only become a PercentType when read, so one out of range is turned away here
+    private static boolean isPercent(String name, int value) {
+        if (value < 0 || value > 100) {
+            logger.debug("Ignoring {} of {} as it is not a percentage", name, value);
+            return false;
+        }
+        return true;
+    }
 
     public OnOffType getSwitch0() {
-        return this.switch0;
+        return getFlag(SWITCH0);
     }
 
     public void setSwitch0(String switch0) {
-        this.switch0 = switch0.equals("on") ? OnOffType.ON : OnOffType.OFF;
+        setFlag(SWITCH0, switch0.equals("on"));
     }
 
     public OnOffType getSwitch1() {
-        return this.switch1;
+        return getFlag(SWITCH1);
     }
 
     public void setSwitch1(String switch1) {
-        this.switch1 = switch1.equals("on") ? OnOffType.ON : OnOffType.OFF;
+        setFlag(SWITCH1, switch1.equals("on"));
     }
 
     public OnOffType getSwitch2() {
-        return this.switch2;
+        return getFlag(SWITCH2);
     }
 
     public void setSwitch2(String switch2) {
-        this.switch2 = switch2.equals("on") ? OnOffType.ON : OnOffType.OFF;
+        setFlag(SWITCH2, switch2.equals("on"));
     }
 
     public OnOffType getSwitch3() {
-        return this.switch3;
+        return getFlag(SWITCH3);
     }
 
     public void setSwitch3(String switch3) {
-        this.switch3 = switch3.equals("on") ? OnOffType.ON : OnOffType.OFF;
+        setFlag(SWITCH3, switch3.equals("on"));
     }
 
     public QuantityType<Power> getPower() {
-        return this.power;
+        return new QuantityType<Power>(power, WATT);
     }
 
     public void setPower(String power) {
-        this.power = new QuantityType<Power>(Float.parseFloat(power), WATT);
+        this.power = Float.parseFloat(power);
     }
 
     public QuantityType<ElectricPotential> getVoltage() {
-        return this.voltage;
+        return new QuantityType<ElectricPotential>(voltage, VOLT);
     }
 
     public void setVoltage(String voltage) {
-        this.voltage = new QuantityType<ElectricPotential>(Float.parseFloat(voltage), VOLT);
+        this.voltage = Float.parseFloat(voltage);
     }
 
     public QuantityType<ElectricCurrent> getCurrent() {
-        return this.current;
+        return new QuantityType<ElectricCurrent>(current, AMPERE);
     }
 
     public void setCurrent(String current) {
-        this.current = new QuantityType<ElectricCurrent>(Float.parseFloat(current), AMPERE);
+        this.current = Float.parseFloat(current);
     }
 
     public QuantityType<ElectricPotential> getBattery() {
-        return this.battery;
+        return new QuantityType<ElectricPotential>(battery, VOLT);
     }
 
-    public void setBattery(Double battery) {
-        this.battery = new QuantityType<ElectricPotential>(battery, VOLT);
+    public void setBattery(double battery) {
+        this.battery = battery;
     }
 
     public QuantityType<Energy> getTodayKwh() {
-        return this.todayKwh;
+        return new QuantityType<Energy>(todayKwh, KILOWATT_HOUR);
     }
 
-    public void setTodayKwh(Double total) {
-        this.todayKwh = new QuantityType<Energy>(total, KILOWATT_HOUR);
+    public void setTodayKwh(double total) {
+        this.todayKwh = total;
     }
 
     public QuantityType<Energy> getDayKwh() {
-        return this.dayKwh;
+        return new QuantityType<Energy>(dayKwh, KILOWATT_HOUR);
     }
 
-    public void setDayKwh(Double total) {
-        this.dayKwh = new QuantityType<Energy>(total, KILOWATT_HOUR);
+    public void setDayKwh(double total) {
+        this.dayKwh = total;
     }
 
     public QuantityType<Energy> getMonthKwh() {
-        return this.monthKwh;
+        return new QuantityType<Energy>(monthKwh, KILOWATT_HOUR);
     }
 
-    public void setMonthKwh(Double total) {
-        this.monthKwh = new QuantityType<Energy>(total, KILOWATT_HOUR);
+    public void setMonthKwh(double total) {
+        this.monthKwh = total;
     }
 
     public QuantityType<Energy> getYesterdayKwh() {
-        return this.yesterdayKwh;
+        return new QuantityType<Energy>(yesterdayKwh, KILOWATT_HOUR);
     }
 
-    public void setYesterdayKwh(Double total) {
-        this.yesterdayKwh = new QuantityType<Energy>(total, KILOWATT_HOUR);
+    public void setYesterdayKwh(double total) {
+        this.yesterdayKwh = total;
     }
 
     public QuantityType<Energy> getSevenKwh() {
-        return this.sevenKwh;
+        return new QuantityType<Energy>(sevenKwh, KILOWATT_HOUR);
     }
 
-    public void setSevenKwh(Double total) {
-        this.sevenKwh = new QuantityType<Energy>(total, KILOWATT_HOUR);
+    public void setSevenKwh(double total) {
+        this.sevenKwh = total;
     }
 
     public QuantityType<Energy> getThirtyKwh() {
-        return this.thirtyKwh;
+        return new QuantityType<Energy>(thirtyKwh, KILOWATT_HOUR);
     }
 
-    public void setThirtyKwh(Double total) {
-        this.thirtyKwh = new QuantityType<Energy>(total, KILOWATT_HOUR);
+    public void setThirtyKwh(double total) {
+        this.thirtyKwh = total;
     }
 
     public QuantityType<Energy> getHundredKwh() {
-        return this.hundredKwh;
+        return new QuantityType<Energy>(hundredKwh, KILOWATT_HOUR);
+    }
+
+    public void setHundredKwh(double total) {
+        this.hundredKwh = total;
+    }
+
+    /**
+     * @return the daily usage in kwh with today first, empty until the device has reported it. Must not be changed.
+     */
+    public double[] getKwhHistory() {
+        return this.kwhHistory;
     }
 
-    public void setHundredKwh(Double total) {
-        this.hundredKwh = new QuantityType<Energy>(total, KILOWATT_HOUR);
+    public void setKwhHistory(double[] kwhHistory) {
+        this.kwhHistory = kwhHistory;
     }
 
     public StringType getSensorType() {
-        return this.sensorType;
+        return new StringType(sensorType);
     }
 
     public void setSensorType(String sensorType) {
-        this.sensorType = new StringType(sensorType);
+        this.sensorType = sensorType;
     }
 
     public QuantityType<Temperature> getTemperature() {
-        return this.temperature;
+        return new QuantityType<Temperature>(temperature, SIUnits.CELSIUS);
     }
 
-    public void setTemperature(Double temperature) {
-        this.temperature = new QuantityType<Temperature>(temperature, SIUnits.CELSIUS);
+    public void setTemperature(double temperature) {
+        this.temperature = temperature;
     }
 
     public QuantityType<Dimensionless> getHumidity() {
-        return this.humidity;
+        return new QuantityType<Dimensionless>(humidity, PERCENT);
     }
 
-    public void setHumidity(Double humidity) {
-        this.humidity = new QuantityType<Dimensionless>(humidity, PERCENT);
+    public void setHumidity(double humidity) {
+        this.humidity = humidity;
     }
 
     public DateTimeType getLastUpdate() {
-        return this.lastUpdate;
+        return getTime(lastUpdate);
     }
 
     public void setLastUpdate(String lastUpdate) {
-        this.lastUpdate = new DateTimeType(lastUpdate);
+        if (isTime("lastUpdate", lastUpdate)) {
+            this.lastUpdate = lastUpdate;
+        }
     }
 
     public DateTimeType getActionTime() {
-        return this.actionTime;
+        return getTime(actionTime);
     }
 
     public void setActionTime(String actionTime) {
-        this.actionTime = new DateTimeType(actionTime);
+        if (isTime("actionTime", actionTime)) {
+            this.actionTime = actionTime;
+        }
     }
 
     public PercentType getWhiteBrightness() {
-        return this.whiteBrightness;
+        return new PercentType(whiteBrightness);
     }
 
-    public void setWhiteBrightness(Integer whiteBrightness) {
-        this.whiteBrightness = new PercentType(whiteBrightness);
+    public void setWhiteBrightness(int whiteBrightness) {
+        if (isPercent("whiteBrightness", whiteBrightness)) {
+            this.whiteBrightness = whiteBrightness;
+        }
     }
 
     public PercentType getColorBrightness() {
-        return this.colorBrightness;
+        return new PercentType(colorBrightness);
     }
 
-    public void setColorBrightness(Integer colorBrightness) {
-        this.colorBrightness = new PercentType(colorBrightness);
+    public void setColorBrightness(int colorBrightness) {
+        if (isPercent("colorBrightness", colorBrightness)) {
+            this.colorBrightness = colorBrightness;
+        }
     }
 
     public HSBType getColor() {
-        return this.color;
+        return HSBType.fromRGB(rgb >> 16 & 0xff, rgb >> 8 & 0xff, rgb & 0xff);
     }
 
-    public void setColor(Integer red, Integer green, Integer blue) {
-        HSBType hsb = HSBType.fromRGB(red, green, blue);
-        this.color = hsb;
+    public void setColor(int red, int green, int blue) {
+        this.rgb = (red & 0xff) << 16 | (green & 0xff) << 8 | (blue & 0xff);
     }
 
     public PercentType getSpeed() {
-        return this.speed;
+        return new PercentType(speed);
     }
 
-    public void setSpeed(Integer speed) {
-        this.speed = new PercentType(speed);
+    public void setSpeed(int speed) {
+        if (isPercent("speed", speed)) {
+            this.speed = speed;
+        }
     }
 
     public DecimalType getSensitivity() {
-        return this.sensitivity;
+        return new DecimalType(sensitivity);
     }
 
-    public void setSensitivity(Integer sensitivity) {
-        this.sensitivity = new DecimalType(sensitivity);
+    public void setSensitivity(int sensitivity) {
+        this.sensitivity = sensitivity;
     }
 
     public DecimalType getMode() {
-        return this.mode;
+        return new DecimalType(mode);
     }
 
-    public void setMode(Integer mode) {
-        this.mode = new DecimalType(mode);
+    public void setMode(int mode) {
+        this.mode = mode;
     }
 
     public OnOffType getMusicMode() {
-        return this.musicMode;
+        return getFlag(MUSIC_MODE);
     }
 
     public void setMusicMode(String musicMode) {
-        this.musicMode = musicMode.equals("on") ? OnOffType.ON : OnOffType.OFF;
-        ;
+        setFlag(MUSIC_MODE, musicMode.equals("on"));
     }
 
     public PercentType getColorTemperature() {
-        return this.colourTemperature;
+        return new PercentType(colourTemperature);
     }
 
-    public void setColorTemperature(Integer colourTemperature) {
-        this.colourTemperature = new PercentType(colourTemperature);
+    public void setColorTemperature(int colourTemperature) {
+        if (isPercent("colorTemperature", colourTemperature)) {
+            this.colourTemperature = colourTemperature;
+        }
     }
 
     public StringType getLtype() {
-        return this.ltype;
+        return new StringType(ltype);
     }
 
     public void setLtype(String ltype) {
-        this.ltype = new StringType(ltype);
+        this.ltype = ltype;
     }
 
     public OnOffType getNetworkLED() {
-        return this.networkLED;
+        return getFlag(NETWORK_LED);
     }
 
     public void setNetworkLED(String networkLED) {
-        this.networkLED = networkLED.equals("on") ? OnOffType.ON : OnOffType.OFF;
+        setFlag(NETWORK_LED, networkLED.equals("on"));
     }
 
     public QuantityType<Power> getRssi() {
-        return this.rssi;
+        return new QuantityType<Power>(rssi, DECIBEL_MILLIWATTS);
     }
 
-    public void setRssi(Integer rssi) {
-        this.rssi = new QuantityType<Power>(rssi, DECIBEL_MILLIWATTS);
+    public void setRssi(int rssi) {
+        this.rssi = rssi;
     }
 
     public OnOffType getZigbeeLED() {
-        return this.zigbeeLED;
+        return getFlag(ZIGBEE_LED);
     }
 
     public void setZigbeeLED(String zigbeeLED) {
-        this.zigbeeLED = zigbeeLED.equals("on") ? OnOffType.ON : OnOffType.OFF;
+        setFlag(ZIGBEE_LED, zigbeeLED.equals("on"));
+    }
+
+    public DateTimeType getRf(int channel) {
+        int bit = 1 << channel;
+        if ((rfChannels & bit) == 0) {
+            return getTime(null);
+        }
+        return new DateTimeType(rfTriggers[Integer.bitCount(rfChannels & (bit - 1))]);
+    }
+
+    public void setRf(int channel, String rfTrig) {
+        if (!isTime("rfTrig" + channel, rfTrig)) {
+            return;
+        }
+        int bit = 1 << channel;
+        int index = Integer.bitCount(rfChannels & (bit - 1));
+        String[] triggers;
+        if ((rfChannels & bit) != 0) {
+            triggers = rfTriggers.clone();
+        } else {
+            triggers = new String[rfTriggers.length + 1];
+            System.arraycopy(rfTriggers, 0, triggers, 0, index);
+            System.arraycopy(rfTriggers, index, triggers, index + 1, rfTriggers.length - index);
+            rfChannels |= bit;
+        }
+        triggers[index] = rfTrig;
+        rfTriggers = triggers;
     }
 
     public DateTimeType getRf0() {
-        return this.rf0;
+        return getRf(0);
     }
 
     public void setRf0(String rf0) {
-        this.rf0 = new DateTimeType(rf0);
+        setRf(0, rf0);
     }
 
     public DateTimeType getRf1() {
-        return this.rf1;
+        return getRf(1);
     }
 
     public void setRf1(String rf1) {
-        this.rf1 = new DateTimeType(rf1);
+        setRf(1, rf1);
     }
 
     public DateTimeType getRf2() {
-        return this.rf2;
+        return getRf(2);
     }
 
     public void setRf2(String rf2) {
-        this.rf2 = new DateTimeType(rf2);
+        setRf(2, rf2);
     }
 
     public DateTimeType getRf3() {
-        return this.rf3;
+        return getRf(3);
     }
 
     public void setRf3(String rf3) {
-        this.rf3 = new DateTimeType(rf3);
+        setRf(3, rf3);
     }
 
     public DateTimeType getRf4() {
-        return this.rf4;
+        return getRf(4);
     }
 
     public void setRf4(String rf4) {
-        this.rf4 = new DateTimeType(rf4);
+        setRf(4, rf4);
     }
 
     public DateTimeType getRf5() {
-        return this.rf5;
+        return getRf(5);
     }
 
     public void setRf5(String rf5) {
-        this.rf5 = new DateTimeType(rf5);
+        setRf(5, rf5);
     }
 
     public DateTimeType getRf6() {
-        return this.rf6;
+        return getRf(6);
     }
 
     public void setRf6(String rf6) {
-        this.rf6 = new DateTimeType(rf6);
+        setRf(6, rf6);
     }
 
     public DateTimeType getRf7() {
-        return this.rf7;
+        return getRf(7);
     }
 
     public void setRf7(String rf7) {
-        this.rf7 = new DateTimeType(rf7);
+        setRf(7, rf7);
     }
 
     public DateTimeType getRf8() {
-        return this.rf8;
+        return getRf(8);
     }
 
     public void setRf8(String rf8) {
-        this.rf8 = new DateTimeType(rf8);
+        setRf(8, rf8);
     }
 
     public DateTimeType getRf9() {
-        return this.rf9;
+        return getRf(9);
     }
 
     public void setRf9(String rf9) {
-        this.rf9 = new DateTimeType(rf9);
+        setRf(9, rf9);
     }
 
     public DateTimeType getRf10() {
-        return this.rf10;
+        return getRf(10);
     }
 
     public void setRf10(String rf10) {
-        this.rf10 = new DateTimeType(rf10);
+        setRf(10, rf10);
     }
 
     public DateTimeType getRf11() {
-        return this.rf11;
+        return getRf(11);
     }
 
     public void setRf11(String rf11) {
-        this.rf11 = new DateTimeType(rf11);
+        setRf(11, rf11);
     }
 
     public DateTimeType getRf12() {
-        return this.rf12;
+        return getRf(12);
     }
 
     public void setRf12(String rf12) {
-        this.rf12 = new DateTimeType(rf12);
+        setRf(12, rf12);
     }
 
     public DateTimeType getRf13() {
-        return this.rf13;
+        return getRf(13);
     }
 
     public void setRf13(String rf13) {
-        this.rf13 = new DateTimeType(rf13);
+        setRf(13, rf13);
     }
 
     public DateTimeType getRf14() {
-        return this.rf14;
+        return getRf(14);
     }
 
     public void setRf14(String rf14) {
-        this.rf14 = new DateTimeType(rf14);
+        setRf(14, rf14);
     }
 
     public DateTimeType getRf15() {
-        return this.rf15;
+        return getRf(15);
     }
 
     public void setRf15(String rf15) {
-        this.rf15 = new DateTimeType(rf15);
+        setRf(15, rf15);
     }
 
     public JsonArray getRfCodeList() {
@@ -499,18 +626,20 @@ public class SonoffDeviceStateParameters {
     }
 
     public DateTimeType getTrigTime() {
-        return this.trigTime;
+        return getTime(trigTime);
     }
 
     public void setTrigTime(String trigTime) {
-        this.trigTime = new DateTimeType(trigTime);
+        if (isTime("trigTime", trigTime)) {
+            this.trigTime = trigTime;
+        }
     }
 
     public OnOffType getMotion() {
-        return this.motion;
+        return getFlag(MOTION);
     }
 
-    public void setMotion(Integer motion) {
-        this.motion = motion.equals(1) ? OnOffType.ON : OnOffType.OFF;
+    public void setMotion(int motion) {
+        setFlag(MOTION, motion == 1);
     }
 }
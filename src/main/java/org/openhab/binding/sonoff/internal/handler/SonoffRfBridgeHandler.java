@@ -132,7 +132,7 @@ public class SonoffRfBridgeHandler extends SonoffBaseBridgeHandler {
         if (account != null) {
             SonoffDeviceState state = account.getState(this.deviceid);
             if (state != null) {
-                subDevices = state.getSubDevices();
+                subDevices = state.getState().getSubDevices();
             }
         }
         return subDevices;
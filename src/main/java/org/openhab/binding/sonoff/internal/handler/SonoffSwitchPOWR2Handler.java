@@ -137,6 +137,7 @@ public class SonoffSwitchPOWR2Handler extends SonoffBaseDeviceHandler {
         updateState("sevenKwh", newDevice.getParameters().getSevenKwh());
         updateState("thirtyKwh", newDevice.getParameters().getThirtyKwh());
         updateState("hundredKwh", newDevice.getParameters().getHundredKwh());
+        updateKwhHistory("dailyKwh", newDevice.getParameters().getKwhHistory());
         updateState("ipaddress", newDevice.getIpAddress());
         // Connections
         this.cloud = newDevice.getCloud();
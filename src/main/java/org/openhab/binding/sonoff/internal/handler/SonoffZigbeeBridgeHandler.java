@@ -85,7 +85,7 @@ public class SonoffZigbeeBridgeHandler extends SonoffBaseBridgeHandler {
         if (account != null) {
             SonoffDeviceState state = account.getState(this.deviceid);
             if (state != null) {
-                subDevices = state.getSubDevices();
+                subDevices = state.getState().getSubDevices();
             }
         }
         return subDevices;
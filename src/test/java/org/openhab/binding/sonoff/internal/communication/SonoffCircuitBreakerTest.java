@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.sonoff.internal.communication;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link SonoffCircuitBreaker}
+ *
+ * @author David Murton - Initial contribution
+ */
+@NonNullByDefault
+public class SonoffCircuitBreakerTest {
+
+    private SonoffCircuitBreaker halfOpen() {
+        SonoffCircuitBreaker breaker = new SonoffCircuitBreaker("1000000001", 2, 0);
+        breaker.failure();
+        assertTrue(breaker.failure());
+        assertTrue(breaker.isOpen());
+        return breaker;
+    }
+
+    @Test
+    public void opensAfterThresholdTimeouts() {
+        SonoffCircuitBreaker breaker = new SonoffCircuitBreaker("1000000001", 3, 60000);
+        assertFalse(breaker.failure());
+        assertFalse(breaker.failure());
+        assertTrue(breaker.failure());
+        assertFalse(breaker.allowRequest(true, 1));
+    }
+
+    @Test
+    public void staysOpenWhileUnreachable() {
+        SonoffCircuitBreaker breaker = halfOpen();
+        assertFalse(breaker.allowRequest(false, 1));
+        assertTrue(breaker.isOpen());
+    }
+
+    @Test
+    public void halfOpenAdmitsASingleProbe() {
+        SonoffCircuitBreaker breaker = halfOpen();
+        assertTrue(breaker.allowRequest(true, 1));
+        assertEquals(SonoffCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.isProbing(1));
+        assertFalse(breaker.allowRequest(true, 2));
+        assertFalse(breaker.allowRequest(true, 3));
+        // A retry of the probe itself is still let through
+        assertTrue(breaker.allowRequest(true, 1));
+    }
+
+    @Test
+    public void abandonedProbeMakesWayForTheNext() {
+        SonoffCircuitBreaker breaker = halfOpen();
+        assertTrue(breaker.allowRequest(true, 1));
+        breaker.abandoned(2);
+        assertFalse(breaker.allowRequest(true, 2));
+        breaker.abandoned(1);
+        assertTrue(breaker.allowRequest(true, 2));
+        assertTrue(breaker.isProbing(2));
+    }
+
+    @Test
+    public void probeTimeoutOpensAgain() {
+        SonoffCircuitBreaker breaker = halfOpen();
+        assertTrue(breaker.allowRequest(true, 1));
+        assertTrue(breaker.failure());
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.isProbing(1));
+    }
+}
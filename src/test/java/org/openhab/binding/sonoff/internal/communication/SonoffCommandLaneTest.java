@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.sonoff.internal.communication;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.jupiter.api.Test;
+import org.openhab.binding.sonoff.internal.dto.commands.Color;
+import org.openhab.binding.sonoff.internal.dto.commands.SingleSwitch;
+import org.openhab.binding.sonoff.internal.dto.commands.White;
+
+/**
+ * Tests for the coalescing of queued messages in {@link SonoffCommandLane}
+ *
+ * @author David Murton - Initial contribution
+ */
+@NonNullByDefault
+public class SonoffCommandLaneTest {
+
+    private static final String DEVICEID = "1000000001";
+
+    private static SonoffCommandMessage white(int brightness) {
+        White white = new White();
+        white.getWhite().setBrightness(brightness);
+        return new SonoffCommandMessage("brightness", DEVICEID, false, white);
+    }
+
+    private static SonoffCommandMessage color(int brightness) {
+        Color color = new Color();
+        color.getColor().setBrightness(brightness);
+        return new SonoffCommandMessage("brightness", DEVICEID, false, color);
+    }
+
+    private static SonoffCommandMessage toggle(String onOff) {
+        SingleSwitch singleSwitch = new SingleSwitch();
+        singleSwitch.setSwitch(onOff);
+        return new SonoffCommandMessage("switch", DEVICEID, true, singleSwitch);
+    }
+
+    @Test
+    public void newerCommandReplacesTheQueuedOne() {
+        SonoffCommandLane lane = new SonoffCommandLane(DEVICEID);
+        SonoffCommandMessage first = white(10);
+        SonoffCommandMessage second = white(20);
+        assertNull(lane.add(first));
+        assertSame(first, lane.add(second));
+        assertEquals(1, lane.size());
+        assertSame(second, lane.poll());
+    }
+
+    @Test
+    public void whiteAndColorBrightnessAreNotMerged() {
+        SonoffCommandLane lane = new SonoffCommandLane(DEVICEID);
+        SonoffCommandMessage white = white(10);
+        SonoffCommandMessage color = color(20);
+        assertNull(lane.add(white));
+        assertNull(lane.add(color));
+        assertEquals(2, lane.size());
+        assertSame(white, lane.poll());
+        assertSame(color, lane.poll());
+    }
+
+    @Test
+    public void replacedCommandJoinsTheTail() {
+        SonoffCommandLane lane = new SonoffCommandLane(DEVICEID);
+        SonoffCommandMessage on = toggle("on");
+        SonoffCommandMessage white = white(10);
+        SonoffCommandMessage off = toggle("off");
+        lane.add(on);
+        lane.add(white);
+        assertSame(on, lane.add(off));
+        assertSame(white, lane.poll());
+        assertSame(off, lane.poll());
+        assertNull(lane.poll());
+    }
+
+    @Test
+    public void retryIsDroppedWhenANewerOneIsQueued() {
+        SonoffCommandLane lane = new SonoffCommandLane(DEVICEID);
+        SonoffCommandMessage sent = color(10);
+        lane.add(sent);
+        assertSame(sent, lane.take(1));
+        lane.add(color(20));
+        assertFalse(lane.retry(sent));
+        assertTrue(lane.retry(white(30)));
+        assertEquals(2, lane.size());
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.sonoff.internal.communication;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link SonoffCommandMessageUtilities}
+ *
+ * @author David Murton - Initial contribution
+ */
+@NonNullByDefault
+public class SonoffCommandMessageUtilitiesTest {
+
+    private static final int THREADS = 16;
+    private static final int CALLS = 20000;
+
+    @Test
+    public void sequencesAreUniqueAndIncreasingAcrossThreads() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<long[]>> results = new ArrayList<>();
+        try {
+            for (int t = 0; t < THREADS; t++) {
+                results.add(executor.submit(() -> {
+                    long[] sequences = new long[CALLS];
+                    start.await();
+                    for (int i = 0; i < CALLS; i++) {
+                        sequences[i] = SonoffCommandMessageUtilities.getSequence();
+                    }
+                    return sequences;
+                }));
+            }
+            start.countDown();
+
+            Set<Long> seen = new HashSet<>();
+            for (Future<long[]> result : results) {
+                long[] sequences = result.get(30, TimeUnit.SECONDS);
+                for (int i = 0; i < sequences.length; i++) {
+                    if (i > 0) {
+                        assertTrue(sequences[i] > sequences[i - 1],
+                                "Sequence " + sequences[i] + " does not follow " + sequences[i - 1]);
+                    }
+                    assertTrue(seen.add(sequences[i]), "Sequence " + sequences[i] + " was handed out twice");
+                }
+            }
+            assertEquals(THREADS * CALLS, seen.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void sequencesStartFromTheCurrentTime() {
+        long before = System.currentTimeMillis();
+        long sequence = SonoffCommandMessageUtilities.getSequence();
+        assertTrue(sequence >= before, "Sequence " + sequence + " is older than " + before);
+    }
+}
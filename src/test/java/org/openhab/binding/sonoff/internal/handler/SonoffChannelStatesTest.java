@@ -0,0 +1,79 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.sonoff.internal.handler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.jupiter.api.Test;
+import org.openhab.binding.sonoff.internal.SonoffChannelSnapshots;
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.library.types.OnOffType;
+
+/**
+ * Tests for {@link SonoffChannelStates}
+ *
+ * @author David Murton - Initial contribution
+ */
+@NonNullByDefault
+public class SonoffChannelStatesTest {
+
+    private static final String THING = "sonoff:5:account:device";
+
+    private final List<String> published = new ArrayList<>();
+    private final SonoffChannelStates states = new SonoffChannelStates(
+            (channelID, state) -> published.add(channelID + "=" + state));
+
+    private static SonoffChannelSnapshots snapshots() throws Exception {
+        Path file = Files.createTempDirectory("sonoff").resolve("channels.snapshot");
+        SonoffChannelSnapshots snapshots = new SonoffChannelSnapshots(file);
+        snapshots.put(THING, "switch", OnOffType.ON);
+        return snapshots;
+    }
+
+    @Test
+    public void onlyChangedStatesArePublished() {
+        states.update("power", new DecimalType(5));
+        states.update("power", new DecimalType(5));
+        states.update("power", new DecimalType(6));
+        assertEquals(List.of("power=5", "power=6"), published);
+    }
+
+    @Test
+    public void cachedDeviceOnlyFillsChannelsThatWereNotRestored() throws Exception {
+        assertTrue(states.restore(snapshots(), THING, () -> {
+            assertTrue(states.isRestoring());
+            states.update("switch", OnOffType.OFF);
+            states.update("power", new DecimalType(5));
+        }));
+        assertFalse(states.isRestoring());
+        assertEquals(List.of("switch=ON", "power=5"), published);
+        // Live updates reach every channel again
+        states.update("switch", OnOffType.OFF);
+        assertEquals(List.of("switch=ON", "power=5", "switch=OFF"), published);
+    }
+
+    @Test
+    public void publishedStatesAreSnapshotted() throws Exception {
+        SonoffChannelSnapshots snapshots = snapshots();
+        states.restore(snapshots, THING, () -> {
+        });
+        states.update("power", new DecimalType(7));
+        assertEquals(new DecimalType(7), snapshots.get(THING).get("power"));
+    }
+}
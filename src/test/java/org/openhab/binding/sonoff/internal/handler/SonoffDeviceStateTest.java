@@ -0,0 +1,200 @@
+/**
+ * Copyright (c) 2010-2021 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.sonoff.internal.handler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Objects;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.jupiter.api.Test;
+import org.openhab.core.library.types.DateTimeType;
+import org.openhab.core.library.types.OnOffType;
+import org.openhab.core.library.types.PercentType;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Runs captured device updates through both the json tree and the streaming parsers of {@link SonoffDeviceState} and
+ * checks they leave the same parameters behind
+ *
+ * @author David Murton - Initial contribution
+ */
+@NonNullByDefault
+public class SonoffDeviceStateTest {
+
+    // POWR3 websocket updates, electrical values in hundredths
+    private static final String[] POWR3_FRAMES = { //
+            "{\"switch\":\"on\",\"power\":\"1234\",\"voltage\":\"23012\",\"current\":\"56\"}",
+            "{\"power\":\"0\",\"voltage\":\"22987\",\"current\":\"0\",\"dayKwh\":123,\"monthKwh\":4567}",
+            "{\"switch\":\"off\",\"sledOnline\":\"on\",\"rssi\":-61,\"online\":true}" };
+
+    // TH16 websocket and lan updates, readings as strings or numbers
+    private static final String[] TH_FRAMES = { //
+            "{\"currentTemperature\":\"23.5\",\"currentHumidity\":\"45\",\"switch\":\"on\"}",
+            "{\"temperature\":23.7,\"humidity\":44.9,\"rssi\":-58}",
+            "{\"currentTemperature\":\"unavailable\",\"currentHumidity\":\"unavailable\",\"sensorType\":\"errorType\"}",
+            "{\"temperature\":\"22.1\",\"humidity\":\"50\",\"deviceType\":\"normal\",\"mainSwitch\":\"on\"}" };
+
+    // Zigbee temperature sensor, readings in hundredths
+    private static final String[] SENSOR_FRAMES = { //
+            "{\"temperature\":2350,\"humidity\":4520,\"battery\":3.1}", //
+            "{\"temperature\":\"2299\",\"humidity\":4999.0}" };
+
+    // LED strip updates, whole numbers sometimes sent with decimals
+    private static final String[] STRIP_FRAMES = { //
+            "{\"mode\":1,\"speed\":50,\"sensitive\":5,\"colorR\":255,\"colorG\":10,\"colorB\":0,\"bright\":80}",
+            "{\"mode\":12.0,\"speed\":\"40\",\"sensitive\":4.6,\"colorR\":1.9,\"colorG\":200,\"colorB\":30,"
+                    + "\"rssi\":-55.7}" };
+
+    private static JsonObject device(int uiid) {
+        return JsonParser.parseString("{\"deviceid\":\"1000000001\",\"name\":\"Test\",\"brandName\":\"SONOFF\","
+                + "\"productModel\":\"Test\",\"devicekey\":\"key\",\"apikey\":\"api\",\"online\":false,"
+                + "\"extra\":{\"uiid\":" + uiid + "},\"params\":{\"fwVersion\":\"1.0.0\",\"switch\":\"off\"}}")
+                .getAsJsonObject();
+    }
+
+    private static JsonObject update(String params) {
+        JsonObject update = new JsonObject();
+        update.addProperty("deviceid", "1000000001");
+        update.add("params", JsonParser.parseString(params));
+        return update;
+    }
+
+    private static void stream(SonoffDeviceState state, String params) throws IOException {
+        stream(state, params, new JsonObject());
+    }
+
+    private static void stream(SonoffDeviceState state, String params, JsonObject received) throws IOException {
+        try (JsonReader reader = new JsonReader(new StringReader(params))) {
+            state.updateState(reader, received);
+        }
+    }
+
+    private static void assertSameParameters(SonoffDeviceState expected, SonoffDeviceState actual) throws Exception {
+        for (Method getter : SonoffDeviceStateParameters.class.getMethods()) {
+            if (getter.getName().startsWith("get") && getter.getParameterCount() == 0
+                    && !Modifier.isStatic(getter.getModifiers()) && getter.getDeclaringClass() != Object.class) {
+                Object tree = getter.invoke(expected.getParameters());
+                Object streamed = getter.invoke(actual.getParameters());
+                assertTrue(Objects.deepEquals(tree, streamed), getter.getName() + ": " + tree + " != " + streamed);
+            }
+        }
+        assertEquals(expected.getCloud(), actual.getCloud());
+    }
+
+    // The states are copies of one state so they share when it was created, the params received while streaming are
+    // replayed through the tree parser as they are when read back from the cache
+    private static void assertParsersAgree(int uiid, String... frames) throws Exception {
+        SonoffDeviceState state = new SonoffDeviceState(device(uiid));
+        SonoffDeviceState tree = state.publish();
+        SonoffDeviceState streamed = state.publish();
+        SonoffDeviceState cached = state.publish();
+        for (String frame : frames) {
+            JsonObject received = new JsonObject();
+            tree.updateState(update(frame));
+            stream(streamed, frame, received);
+            cached.updateState(update(received.toString()));
+            assertSameParameters(tree, streamed);
+            assertSameParameters(tree, cached);
+        }
+    }
+
+    @Test
+    public void powr3FramesParseTheSame() throws Exception {
+        assertParsersAgree(190, POWR3_FRAMES);
+    }
+
+    @Test
+    public void thFramesParseTheSame() throws Exception {
+        assertParsersAgree(15, TH_FRAMES);
+        assertParsersAgree(181, TH_FRAMES);
+    }
+
+    @Test
+    public void sensorFramesParseTheSame() throws Exception {
+        assertParsersAgree(1770, SENSOR_FRAMES);
+    }
+
+    @Test
+    public void stripFramesParseTheSame() throws Exception {
+        assertParsersAgree(59, STRIP_FRAMES);
+    }
+
+    @Test
+    public void singleSwitchWinsOverSwitches() throws Exception {
+        assertParsersAgree(1, "{\"switch\":\"on\",\"switches\":[{\"switch\":\"off\",\"outlet\":0}]}",
+                "{\"switches\":[{\"switch\":\"on\",\"outlet\":0}],\"switch\":\"off\"}");
+        SonoffDeviceState state = new SonoffDeviceState(device(1));
+        stream(state, "{\"switches\":[{\"switch\":\"off\",\"outlet\":0},{\"switch\":\"on\",\"outlet\":1}],"
+                + "\"switch\":\"on\"}");
+        assertEquals(OnOffType.ON, state.getParameters().getSwitch0());
+        assertEquals(OnOffType.OFF, state.getParameters().getSwitch1());
+    }
+
+    @Test
+    public void switchesAreAppliedInOrder() throws Exception {
+        assertParsersAgree(126, "{\"switches\":[{\"switch\":\"on\",\"outlet\":0},{\"switch\":\"off\",\"outlet\":1},"
+                + "{\"outlet\":2},{\"switch\":\"on\",\"outlet\":3}]}");
+    }
+
+    @Test
+    public void invalidTimesKeepThePreviousTime() throws Exception {
+        SonoffDeviceState state = new SonoffDeviceState(device(102));
+        stream(state, "{\"lastUpdate\":\"2021-05-01T10:00:00.000Z\",\"rfTrig3\":\"2021-05-01T10:00:01.000Z\"}");
+        DateTimeType lastUpdate = state.getParameters().getLastUpdate();
+        DateTimeType rf = state.getParameters().getRf3();
+        stream(state, "{\"lastUpdate\":\"not a time\",\"rfTrig3\":\"\"}");
+        assertEquals(lastUpdate, state.getParameters().getLastUpdate());
+        assertEquals(rf, state.getParameters().getRf3());
+        assertParsersAgree(102, "{\"lastUpdate\":\"2021-05-01T10:00:00.000Z\"}", "{\"actionTime\":\"yesterday\"}",
+                "{\"trigTime\":\"0\",\"rfTrig0\":\"soon\"}");
+    }
+
+    @Test
+    public void percentagesOutOfRangeKeepThePreviousValue() throws Exception {
+        SonoffDeviceState state = new SonoffDeviceState(device(104));
+        stream(state, "{\"ltype\":\"white\",\"white\":{\"br\":40,\"ct\":0}}");
+        state.publish();
+        stream(state, "{\"white\":{\"br\":150,\"ct\":300},\"color\":{\"r\":1,\"g\":2,\"b\":3,\"br\":-1},"
+                + "\"speed\":101,\"bright\":250}");
+        SonoffDeviceStateParameters parameters = state.publish().getParameters();
+        assertEquals(new PercentType(40), parameters.getWhiteBrightness());
+        assertEquals(new PercentType(0), parameters.getColorTemperature());
+        assertEquals(new PercentType(0), parameters.getColorBrightness());
+        assertEquals(new PercentType(0), parameters.getSpeed());
+        // The next update still publishes
+        stream(state, "{\"white\":{\"br\":60,\"ct\":255}}");
+        parameters = state.publish().getParameters();
+        assertEquals(new PercentType(60), parameters.getWhiteBrightness());
+        assertEquals(new PercentType(100), parameters.getColorTemperature());
+        assertParsersAgree(104, "{\"white\":{\"br\":150,\"ct\":0}}", "{\"white\":{\"br\":20,\"ct\":0}}",
+                "{\"speed\":200,\"bright\":101}");
+    }
+
+    @Test
+    public void badFrameLeavesTheStateUnchanged() throws Exception {
+        SonoffDeviceState state = new SonoffDeviceState(device(190));
+        SonoffDeviceState before = state.publish();
+        assertThrows(NumberFormatException.class,
+                () -> stream(state, "{\"switch\":\"on\",\"online\":true,\"power\":\"not a number\"}"));
+        assertSameParameters(before, state);
+        assertEquals(OnOffType.OFF, state.getParameters().getSwitch0());
+    }
+}